@@ -0,0 +1,155 @@
+package lld.cache;
+
+import java.util.*;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha).
+ *
+ * Resident nodes are split between T1 (seen once recently) and T2 (seen at
+ * least twice). Keys evicted from them are remembered, without values, in the
+ * ghost lists B1 and B2. A miss that hits B1 means T1 was too small, one that
+ * hits B2 means T2 was too small, and the target size p of T1 adapts
+ * accordingly, so the policy balances recency and frequency on its own.
+ */
+public class ARCPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int T1 = 1;
+    private static final int T2 = 2;
+
+    private int capacity;
+    private final Cache.NodeList<K, V> t1 = new Cache.NodeList<>();
+    private final Cache.NodeList<K, V> t2 = new Cache.NodeList<>();
+    // Ghost lists in insertion order, the first key is the least recent one.
+    private final LinkedHashSet<K> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<K> b2 = new LinkedHashSet<>();
+    // Target size of T1.
+    private int p;
+    // Incoming key p was already adapted for by evict(), so onInsert doesn't do it twice.
+    private K adaptedKey;
+
+    @Override
+    public void init(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        K key = node.key;
+        boolean adapted = Objects.equals(key, adaptedKey);
+        adaptedKey = null;
+
+        if (b1.contains(key) || b2.contains(key)) {
+            if (!adapted) {
+                adapt(key);
+            }
+            b1.remove(key);
+            b2.remove(key);
+            node.queue = T2;
+            t2.addFirst(node);
+            return;
+        }
+
+        node.queue = T1;
+        t1.addFirst(node);
+        trimGhosts();
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        if (node.queue == T1) {
+            t1.remove(node);
+            node.queue = T2;
+            t2.addFirst(node);
+        } else {
+            t2.moveToFront(node);
+        }
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        list(node).remove(node);
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        boolean inB1 = b1.contains(incomingKey);
+        boolean inB2 = b2.contains(incomingKey);
+
+        if (inB1 || inB2) {
+            adapt(incomingKey);
+            adaptedKey = incomingKey;
+            return replace(inB2);
+        }
+
+        if (t1.size() + b1.size() >= capacity) {
+            if (t1.size() < capacity) {
+                removeFirst(b1);
+                return replace(false);
+            }
+            // T1 fills the whole cache, drop its LRU node without remembering it.
+            Cache.Node<K, V> victim = t1.last();
+            t1.remove(victim);
+            return victim;
+        }
+
+        if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * capacity) {
+            removeFirst(b2);
+        }
+        return replace(false);
+    }
+
+    @Override
+    public String name() {
+        return "ARC";
+    }
+
+    private void adapt(K key) {
+        if (b1.contains(key)) {
+            p = Math.min(capacity, p + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+        } else {
+            p = Math.max(0, p - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+        }
+    }
+
+    /**
+     * Evicts from T1 if it is above its target, otherwise from T2, and remembers
+     * the victim in the matching ghost list.
+     */
+    private Cache.Node<K, V> replace(boolean incomingInB2) {
+        boolean fromT1 = !t1.isEmpty() && (t1.size() > p || (incomingInB2 && t1.size() == p) || t2.isEmpty());
+
+        Cache.Node<K, V> victim;
+        if (fromT1) {
+            victim = t1.last();
+            t1.remove(victim);
+            b1.add(victim.key);
+        } else {
+            victim = t2.last();
+            t2.remove(victim);
+            b2.add(victim.key);
+        }
+        return victim;
+    }
+
+    // Keeps resident plus ghost entries within 2 * capacity.
+    private void trimGhosts() {
+        while (b1.size() + t1.size() > capacity && !b1.isEmpty()) {
+            removeFirst(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty()) {
+            removeFirst(b2);
+        }
+    }
+
+    private Cache.NodeList<K, V> list(Cache.Node<K, V> node) {
+        return node.queue == T1 ? t1 : t2;
+    }
+
+    private void removeFirst(LinkedHashSet<K> ghosts) {
+        Iterator<K> it = ghosts.iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
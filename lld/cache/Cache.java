@@ -0,0 +1,274 @@
+package lld.cache;
+
+import java.util.*;
+
+/**
+ * Generic capacity bounded cache with a pluggable eviction policy.
+ *
+ * The cache owns the key -> node map and the nodes; the policy decides the
+ * order nodes leave in (LRU, MRU, FIFO, LFU, CLOCK or ARC) and gets the
+ * capacity from the cache. LRUCache and MRUCache are this cache with
+ * LRUPolicy and MRUPolicy behind their original String keyed APIs.
+ *
+ * Not thread safe.
+ */
+public class Cache<K, V> {
+
+    /**
+     * Cache node. Besides the list links it carries the little bit of per entry
+     * state the policies need, so no policy has to keep a second map.
+     */
+    public static class Node<K, V> {
+        final K key;
+        V value;
+        Node<K, V> prev;
+        Node<K, V> next;
+        // Which policy list the node is on, meaning is up to the policy.
+        int queue;
+        // NodeList the node currently sits on, maintained by NodeList.
+        NodeList<K, V> list;
+        // Reference bit, used by CLOCK.
+        boolean referenced;
+
+        Node(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Sentinel based doubly linked list of nodes, shared by the policies.
+     */
+    static class NodeList<K, V> {
+        private final Node<K, V> head = new Node<>(null, null);
+        private final Node<K, V> tail = new Node<>(null, null);
+        private int size;
+
+        NodeList() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void addFirst(Node<K, V> node) {
+            insertAfter(head, node);
+        }
+
+        void addLast(Node<K, V> node) {
+            insertAfter(tail.prev, node);
+        }
+
+        /**
+         * Inserts node right before the given node, which may be the tail sentinel.
+         */
+        void addBefore(Node<K, V> next, Node<K, V> node) {
+            insertAfter(next.prev, node);
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.list = null;
+            size--;
+        }
+
+        void moveToFront(Node<K, V> node) {
+            remove(node);
+            addFirst(node);
+        }
+
+        Node<K, V> first() {
+            return head.next == tail ? null : head.next;
+        }
+
+        Node<K, V> last() {
+            return tail.prev == head ? null : tail.prev;
+        }
+
+        /**
+         * @return the node after the given one, or null at the end of the list.
+         */
+        Node<K, V> after(Node<K, V> node) {
+            return node.next == tail ? null : node.next;
+        }
+
+        /**
+         * @return the node before the given one, or null at the start of the list.
+         */
+        Node<K, V> before(Node<K, V> node) {
+            return node.prev == head ? null : node.prev;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void insertAfter(Node<K, V> prev, Node<K, V> node) {
+            Node<K, V> next = prev.next;
+
+            node.prev = prev;
+            node.next = next;
+
+            next.prev = node;
+            prev.next = node;
+            node.list = this;
+            size++;
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Node<K, V>> store;
+    private final EvictionPolicy<K, V> policy;
+    private final StatsCounter stats;
+
+    public Cache(final int capacity, final EvictionPolicy<K, V> policy) {
+        this(capacity, policy, StatsCounter.disabled());
+    }
+
+    public Cache(final int capacity, final EvictionPolicy<K, V> policy, final StatsCounter stats) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.store = new HashMap<>();
+        this.policy = policy;
+        this.stats = stats;
+        policy.init(capacity);
+    }
+
+    /**
+     * Adds the key value pair to the cache, evicting the policy's victim if the
+     * cache is full.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(K key, V value) {
+        long start = stats.startTimer();
+        Node<K, V> node = store.get(key);
+        if (node != null) {
+            node.value = value;
+            policy.onAccess(node);
+            stats.recordPutLatency(start);
+            return;
+        }
+
+        if (store.size() == capacity) {
+            Node<K, V> victim = policy.evict(key);
+            store.remove(victim.key);
+            stats.recordEviction();
+        }
+
+        node = new Node<>(key, value);
+        store.put(key, node);
+        policy.onInsert(node);
+        stats.recordPutLatency(start);
+    }
+
+    /**
+     * Gets the value of the key if it exists, otherwise returns null.
+     *
+     * @param key
+     * @return
+     */
+    public V get(K key) {
+        long start = stats.startTimer();
+        Node<K, V> node = store.get(key);
+        if (node == null) {
+            stats.recordMisses(1);
+            stats.recordGetLatency(start);
+            return null;
+        }
+
+        policy.onAccess(node);
+        stats.recordHits(1);
+        stats.recordGetLatency(start);
+        return node.value;
+    }
+
+    /**
+     * Removes the key if present.
+     *
+     * @param key
+     * @return the removed value, or null.
+     */
+    public V remove(K key) {
+        Node<K, V> node = store.remove(key);
+        if (node == null) {
+            return null;
+        }
+
+        policy.onRemove(node);
+        return node.value;
+    }
+
+    public boolean containsKey(K key) {
+        return store.containsKey(key);
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public String policyName() {
+        return policy.name();
+    }
+
+    /**
+     * Snapshot of the cache statistics, all zero unless a StatsCounter was passed in.
+     */
+    public CacheStats stats() {
+        return stats.snapshot(store.size());
+    }
+
+    public static void main(String[] args) {
+        Cache<String, Integer> lruCache = new Cache<>(3, new LRUPolicy<>());
+
+        lruCache.put("key1", 1);
+        lruCache.put("key2", 2);
+        lruCache.get("key1");
+        lruCache.put("key3", 3);
+        lruCache.put("key4", 4); // evicts key2, the least recently used
+
+        System.out.println(lruCache.get("key2")); // should be null
+        System.out.println(lruCache.get("key1")); // should be 1
+
+        Cache<String, String> mruCache = new Cache<>(3, new MRUPolicy<>());
+
+        mruCache.put("product:001", "iPhone");
+        mruCache.put("product:002", "Pixel");
+        mruCache.put("product:003", "Galaxy");
+        mruCache.get("product:001");
+        mruCache.get("product:002");
+        mruCache.put("product:004", "OnePlus"); // evicts product:002, the most recently used
+
+        System.out.println(mruCache.get("product:002")); // should be null
+        System.out.println(mruCache.get("product:003")); // should be Galaxy
+
+        List<EvictionPolicy<Integer, Integer>> policies = List.of(new LRUPolicy<>(), new MRUPolicy<>(),
+                new FIFOPolicy<>(), new LFUPolicy<>(), new ClockPolicy<>(), new ARCPolicy<>());
+        for (EvictionPolicy<Integer, Integer> policy : policies) {
+            Cache<Integer, Integer> cache = new Cache<>(3, policy);
+            for (int key : new int[] { 1, 2, 3, 1, 1, 2, 4, 5, 1, 2 }) {
+                if (cache.get(key) == null) {
+                    cache.put(key, key * 10);
+                }
+            }
+            System.out.println(cache.policyName() + " size " + cache.size()); // always 3
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package lld.cache;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntFunction;
+
+/**
+ * Throughput, allocation and hit ratio benchmarks for every cache in this
+ * package and every eviction policy of the generic Cache, run as a plain main
+ * so it needs nothing beyond the JDK. It is the one harness for the caches:
+ * they are all registered in allCaches, behind the same BenchCache view.
+ *
+ * Throughput mode, the default. Each run is a cache x benchmark x key
+ * distribution x thread count, measured
+ * like a JMH throughput benchmark: a fresh cache, warm up iterations, then
+ * timed iterations whose mean and standard deviation are reported.
+ *
+ * Benchmarks:
+ * get-hit: gets over keys that are all cached.
+ * get-miss: gets over keys that are never cached, on a full cache.
+ * put-evict: puts of keys never seen before, so every put evicts.
+ * mixed: get, then put on a miss, over a key space ten times the capacity.
+ *
+ * Distributions are zipf(0.9), uniform and zipf(0.9) with periodic scans,
+ * built with CacheTraces. put-evict always uses a sequential stream of new
+ * keys. Keys are created up front, so bytes/op is what the cache allocates.
+ * Caches that are not thread safe are wrapped in a single monitor when run on
+ * more than one thread.
+ *
+ * Hit rate mode (-m hit-rate) replays whole access traces on one thread, every
+ * access a get followed by a put on a miss, and prints the hit rate of every
+ * cache on zipf(0.8), zipf(1.0), zipf(0.9) with scans, a zipf whose hot set
+ * shifts, uniform, and any recorded traces (one key per line) given with -trace.
+ *
+ * Usage: CacheBenchmarkSuite [-m throughput|hit-rate] [-c cache,...]
+ * throughput: [-b benchmark,...] [-d distribution,...] [-t threads,...]
+ * [-w warmupIterations] [-i iterations] [-ms iterationMillis]
+ * hit-rate: [-capacity entries] [-trace file,...]
+ */
+public class CacheBenchmarkSuite {
+
+    private static final int CAPACITY = 10_000;
+    private static final int MIXED_KEY_SPACE = CAPACITY * 10;
+    private static final int TRACE_LENGTH = 1 << 18;
+    private static final int PUT_KEY_SPACE = CAPACITY * 64;
+    private static final int OFF_HEAP_SLOT_SIZE = 128;
+
+    /**
+     * Minimal view over the caches under test, get returns -1 on a miss.
+     */
+    private interface BenchCache {
+        void put(String key, int value);
+
+        int get(String key);
+    }
+
+    /**
+     * A cache implementation under test.
+     */
+    private static class CacheFactory {
+        private final String name;
+        private final boolean threadSafe;
+        private final IntFunction<BenchCache> create;
+
+        CacheFactory(final String name, final boolean threadSafe, final IntFunction<BenchCache> create) {
+            this.name = name;
+            this.threadSafe = threadSafe;
+            this.create = create;
+        }
+    }
+
+    /**
+     * Totals of one timed iteration, summed over all threads.
+     */
+    private static class IterationResult {
+        private long operations;
+        private long hits;
+        private long allocatedBytes;
+        private long elapsedNanos;
+    }
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = parseOptions(args);
+        Map<String, CacheFactory> caches = new LinkedHashMap<>();
+        for (CacheFactory factory : allCaches()) {
+            caches.put(factory.name, factory);
+        }
+        List<String> cacheNames = select(options.get("c"), new ArrayList<>(caches.keySet()));
+
+        String mode = options.getOrDefault("m", "throughput");
+        if (mode.equals("hit-rate")) {
+            runHitRates(options, caches, cacheNames);
+        } else if (mode.equals("throughput")) {
+            runThroughput(options, caches, cacheNames);
+        } else {
+            throw new IllegalArgumentException("unknown mode " + mode + ", expected throughput or hit-rate");
+        }
+    }
+
+    private static void runThroughput(Map<String, String> options, Map<String, CacheFactory> caches,
+            List<String> cacheNames) throws InterruptedException {
+        int warmups = Integer.parseInt(options.getOrDefault("w", "1"));
+        int iterations = Integer.parseInt(options.getOrDefault("i", "3"));
+        long iterationMillis = Long.parseLong(options.getOrDefault("ms", "300"));
+
+        List<String> benchmarks = select(options.get("b"), List.of("get-hit", "get-miss", "put-evict", "mixed"));
+        List<String> distributions = select(options.get("d"), List.of("zipf", "uniform", "scan"));
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String threads : select(options.get("t"), defaultThreadCounts())) {
+            threadCounts.add(Integer.parseInt(threads));
+        }
+
+        Workload workload = new Workload();
+        // Hit ratio of the single threaded mixed runs, per cache and distribution.
+        Map<String, Map<String, Double>> hitRatios = new LinkedHashMap<>();
+
+        System.out.printf("capacity %d, %d warmup + %d x %dms iterations%n", CAPACITY, warmups, iterations,
+                iterationMillis);
+        System.out.printf("%-22s %-10s %-8s %7s %16s %10s %8s %10s %10s%n", "cache", "benchmark", "keys", "threads",
+                "ops/sec", "error", "hit%", "bytes/op", "MB/sec");
+
+        for (String cacheName : cacheNames) {
+            CacheFactory factory = factory(caches, cacheName);
+            for (String benchmark : benchmarks) {
+                List<String> runDistributions = benchmark.equals("put-evict") ? List.of("sequential") : distributions;
+                for (String distribution : runDistributions) {
+                    for (int threads : threadCounts) {
+                        BenchCache cache = factory.create.apply(CAPACITY);
+                        if (!factory.threadSafe && threads > 1) {
+                            cache = synchronizedCache(cache);
+                        }
+                        String[] keys = workload.keys(benchmark, distribution);
+                        prepare(cache, benchmark, workload);
+
+                        for (int i = 0; i < warmups; i++) {
+                            runIteration(cache, benchmark, keys, threads, iterationMillis);
+                        }
+                        double[] throughput = new double[iterations];
+                        IterationResult total = new IterationResult();
+                        for (int i = 0; i < iterations; i++) {
+                            IterationResult result = runIteration(cache, benchmark, keys, threads, iterationMillis);
+                            throughput[i] = result.operations * 1e9 / result.elapsedNanos;
+                            total.operations += result.operations;
+                            total.hits += result.hits;
+                            total.allocatedBytes += result.allocatedBytes;
+                            total.elapsedNanos += result.elapsedNanos;
+                        }
+
+                        double hitRatio = (double) total.hits / total.operations;
+                        if (benchmark.equals("mixed") && threads == threadCounts.get(0)) {
+                            hitRatios.computeIfAbsent(cacheName, k -> new LinkedHashMap<>()).put(distribution, hitRatio);
+                        }
+                        System.out.printf("%-22s %-10s %-8s %7d %,16.0f %9.1f%% %7.2f%% %10.1f %10.1f%n", cacheName,
+                                benchmark, distribution, threads, mean(throughput),
+                                stdDev(throughput) / mean(throughput) * 100, hitRatio * 100,
+                                (double) total.allocatedBytes / total.operations,
+                                total.allocatedBytes / (total.elapsedNanos / 1e9) / (1 << 20));
+                    }
+                }
+            }
+        }
+
+        if (!hitRatios.isEmpty()) {
+            System.out.printf("%nmixed hit ratio at %d thread(s), key space %d%n%-22s", threadCounts.get(0),
+                    MIXED_KEY_SPACE, "cache");
+            for (String distribution : distributions) {
+                System.out.printf(" %10s", distribution);
+            }
+            System.out.println();
+            for (Map.Entry<String, Map<String, Double>> row : hitRatios.entrySet()) {
+                System.out.printf("%-22s", row.getKey());
+                for (String distribution : distributions) {
+                    System.out.printf(" %9.2f%%", row.getValue().get(distribution) * 100);
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static void runHitRates(Map<String, String> options, Map<String, CacheFactory> caches,
+            List<String> cacheNames) throws IOException {
+        int capacity = Integer.parseInt(options.getOrDefault("capacity", "1000"));
+
+        Map<String, String[]> traces = new LinkedHashMap<>();
+        traces.put("zipf(0.8)", CacheTraces.zipf(100_000, 0.8, 1_000_000, 1));
+        traces.put("zipf(1.0)", CacheTraces.zipf(100_000, 1.0, 1_000_000, 2));
+        traces.put("zipf(0.9)+scans", CacheTraces.scanPolluted(100_000, 0.9, 1_000_000, 50_000, 5_000, 3));
+        traces.put("shifting zipf", CacheTraces.shifting(100_000, 0.9, 1_000_000, 5, 5));
+        traces.put("uniform", CacheTraces.uniform(10_000, 1_000_000, 4));
+        for (String file : select(options.get("trace"), List.of())) {
+            Path path = Paths.get(file);
+            traces.put(path.getFileName().toString(), CacheTraces.fromFile(path));
+        }
+
+        System.out.printf("capacity %d%n%-22s", capacity, "cache");
+        for (String trace : traces.keySet()) {
+            System.out.printf(" %16s", trace);
+        }
+        System.out.println();
+        for (String cacheName : cacheNames) {
+            CacheFactory factory = factory(caches, cacheName);
+            System.out.printf("%-22s", cacheName);
+            for (String[] trace : traces.values()) {
+                System.out.printf(" %15.2f%%", hitRate(trace, factory.create.apply(capacity)) * 100);
+            }
+            System.out.println();
+        }
+    }
+
+    private static double hitRate(String[] trace, BenchCache cache) {
+        int hits = 0;
+        for (int i = 0; i < trace.length; i++) {
+            if (cache.get(trace[i]) != -1) {
+                hits++;
+            } else {
+                cache.put(trace[i], i);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static CacheFactory factory(Map<String, CacheFactory> caches, String name) {
+        CacheFactory factory = caches.get(name);
+        if (factory == null) {
+            throw new IllegalArgumentException("unknown cache " + name + ", expected one of " + caches.keySet());
+        }
+        return factory;
+    }
+
+    private static List<CacheFactory> allCaches() {
+        List<CacheFactory> caches = new ArrayList<>();
+        caches.add(new CacheFactory("LRUCache", false, c -> {
+            LRUCache cache = new LRUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("MRUCache", false, c -> {
+            MRUCache cache = new MRUCache(c);
+            return new BenchCache() {
+                public void put(String key, int value) {
+                    // Constant value, so the numbers don't include building strings.
+                    cache.put(key, "value");
+                }
+
+                public int get(String key) {
+                    return cache.get(key).isEmpty() ? -1 : 0;
+                }
+            };
+        }));
+        caches.add(new CacheFactory("ConcurrentLRUCache", true, c -> {
+            ConcurrentLRUCache cache = new ConcurrentLRUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("ReadBufferedLRUCache", true, c -> {
+            ReadBufferedLRUCache cache = new ReadBufferedLRUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("PrimitiveLRUCache", false, c -> {
+            PrimitiveLRUCache cache = new PrimitiveLRUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("TinyLFUCache", false, c -> {
+            TinyLFUCache cache = new TinyLFUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("ExpiringLRUCache", true, c -> {
+            ExpiringLRUCache cache = new ExpiringLRUCache(c);
+            return adapter(cache::put, cache::get);
+        }));
+        caches.add(new CacheFactory("LoadingLRUCache", true, c -> {
+            LoadingLRUCache cache = new LoadingLRUCache(c, 0);
+            // Read-through: a miss runs the loader on the calling thread and caches the
+            // result, so get-miss keys are only missed once. The load is reported as -1,
+            // so it counts as a miss.
+            ThreadLocal<boolean[]> loaded = ThreadLocal.withInitial(() -> new boolean[1]);
+            LoadingLRUCache.Loader loader = key -> {
+                loaded.get()[0] = true;
+                return 0;
+            };
+            return adapter(cache::put, key -> {
+                boolean[] flag = loaded.get();
+                flag[0] = false;
+                int value = cache.get(key, loader);
+                return flag[0] ? -1 : value;
+            });
+        }));
+        caches.add(new CacheFactory("OffHeapLRUCache", false, c -> {
+            OffHeapLRUCache cache = new OffHeapLRUCache(c, OFF_HEAP_SLOT_SIZE);
+            return new BenchCache() {
+                public void put(String key, int value) {
+                    cache.put(key, "value");
+                }
+
+                public int get(String key) {
+                    return cache.get(key).isEmpty() ? -1 : 0;
+                }
+            };
+        }));
+        caches.add(generic("LRUPolicy", c -> new LRUPolicy<>()));
+        caches.add(generic("MRUPolicy", c -> new MRUPolicy<>()));
+        caches.add(generic("FIFOPolicy", c -> new FIFOPolicy<>()));
+        caches.add(generic("LFUPolicy", c -> new LFUPolicy<>()));
+        caches.add(generic("LFUPolicy(decay)", c -> new LFUPolicy<>(10 * c)));
+        caches.add(generic("ClockPolicy", c -> new ClockPolicy<>()));
+        caches.add(generic("ARCPolicy", c -> new ARCPolicy<>()));
+        return caches;
+    }
+
+    // The generic Cache with one eviction policy.
+    private static CacheFactory generic(String policy, IntFunction<EvictionPolicy<String, Integer>> create) {
+        return new CacheFactory("Cache+" + policy, false, c -> {
+            Cache<String, Integer> cache = new Cache<>(c, create.apply(c));
+            return adapter(cache::put, key -> {
+                Integer value = cache.get(key);
+                return value == null ? -1 : value;
+            });
+        });
+    }
+
+    /**
+     * Pre-built key arrays for every benchmark and distribution.
+     */
+    private static class Workload {
+        private final String[] resident = new String[CAPACITY];
+        private final Map<String, String[]> traces = new HashMap<>();
+
+        Workload() {
+            for (int i = 0; i < CAPACITY; i++) {
+                resident[i] = "key" + i;
+            }
+        }
+
+        String[] keys(String benchmark, String distribution) {
+            return traces.computeIfAbsent(benchmark + "/" + distribution, k -> build(benchmark, distribution));
+        }
+
+        private String[] build(String benchmark, String distribution) {
+            switch (benchmark) {
+                case "get-hit":
+                    // Only resident keys; scans revisit the resident set instead of new keys.
+                    return distribution(distribution, CAPACITY, "key");
+                case "get-miss":
+                    return distribution(distribution, CAPACITY, "miss");
+                case "put-evict":
+                    String[] keys = new String[PUT_KEY_SPACE];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = "new" + i;
+                    }
+                    return keys;
+                case "mixed":
+                    return distribution(distribution, MIXED_KEY_SPACE, null);
+                default:
+                    throw new IllegalArgumentException("unknown benchmark " + benchmark);
+            }
+        }
+
+        private String[] distribution(String distribution, int keyCount, String prefix) {
+            String[] trace;
+            switch (distribution) {
+                case "zipf":
+                    trace = CacheTraces.zipf(keyCount, 0.9, TRACE_LENGTH, 1);
+                    break;
+                case "uniform":
+                    trace = CacheTraces.uniform(keyCount, TRACE_LENGTH, 2);
+                    break;
+                case "scan":
+                    trace = CacheTraces.scanPolluted(keyCount, 0.9, TRACE_LENGTH, 20_000, 2_000, 3);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown distribution " + distribution);
+            }
+            if (prefix == null) {
+                return trace;
+            }
+
+            // Map every key to the requested key set, keeping the access pattern.
+            Map<String, String> renamed = new HashMap<>();
+            for (int i = 0; i < trace.length; i++) {
+                String key = trace[i];
+                trace[i] = renamed.computeIfAbsent(key,
+                        k -> prefix + Math.floorMod(k.hashCode() * 0x9E3779B9, keyCount));
+            }
+            return trace;
+        }
+    }
+
+    private static void prepare(BenchCache cache, String benchmark, Workload workload) {
+        if (benchmark.equals("mixed")) {
+            return;
+        }
+        // Every other benchmark starts from a cache full of resident keys.
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(workload.resident[i], i);
+        }
+    }
+
+    private static IterationResult runIteration(BenchCache cache, String benchmark, String[] keys, int threads,
+            long iterationMillis) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        boolean putOnly = benchmark.equals("put-evict");
+        boolean putOnMiss = benchmark.equals("mixed");
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] operations = new long[threads];
+        long[] hits = new long[threads];
+        long[] allocated = new long[threads];
+
+        running = true;
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                // Threads walk the same trace from different offsets.
+                int index = (int) ((long) id * keys.length / threads);
+                long ops = 0;
+                long hitCount = 0;
+                long threadId = Thread.currentThread().getId();
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                while (running) {
+                    // Check the flag every 256 operations only.
+                    for (int i = 0; i < 256; i++) {
+                        String key = keys[index];
+                        if (++index == keys.length) {
+                            index = 0;
+                        }
+                        if (putOnly) {
+                            cache.put(key, i);
+                        } else if (cache.get(key) != -1) {
+                            hitCount++;
+                        } else if (putOnMiss) {
+                            cache.put(key, i);
+                        }
+                    }
+                    ops += 256;
+                }
+                allocated[id] = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                operations[id] = ops;
+                hits[id] = hitCount;
+            });
+            workers[t].start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(iterationMillis);
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        IterationResult result = new IterationResult();
+        result.elapsedNanos = System.nanoTime() - begin;
+        for (int t = 0; t < threads; t++) {
+            result.operations += operations[t];
+            result.hits += hits[t];
+            result.allocatedBytes += allocated[t];
+        }
+        return result;
+    }
+
+    private interface Put {
+        void put(String key, int value);
+    }
+
+    private interface Get {
+        int get(String key);
+    }
+
+    private static BenchCache adapter(Put put, Get get) {
+        return new BenchCache() {
+            public void put(String key, int value) {
+                put.put(key, value);
+            }
+
+            public int get(String key) {
+                return get.get(key);
+            }
+        };
+    }
+
+    private static BenchCache synchronizedCache(BenchCache cache) {
+        return new BenchCache() {
+            public synchronized void put(String key, int value) {
+                cache.put(key, value);
+            }
+
+            public synchronized int get(String key) {
+                return cache.get(key);
+            }
+        };
+    }
+
+    private static List<String> defaultThreadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<String> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(String.valueOf(threads));
+        }
+        counts.add(String.valueOf(cores));
+        if (cores == 1) {
+            // Still show contention on a single core machine.
+            counts.add("4");
+        }
+        return counts;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("-") || i + 1 == args.length) {
+                throw new IllegalArgumentException("expected -option value pairs, got " + Arrays.toString(args));
+            }
+            options.put(args[i].substring(1), args[++i]);
+        }
+        return options;
+    }
+
+    private static List<String> select(String option, List<String> all) {
+        return option == null ? all : Arrays.asList(option.split(","));
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stdDev(double[] values) {
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / values.length);
+    }
+}
@@ -0,0 +1,127 @@
+package lld.cache;
+
+/**
+ * Immutable snapshot of a cache's statistics.
+ *
+ * Latency percentiles come from a sampled log2 histogram, so they are upper
+ * bounds of power of two buckets rather than exact values.
+ */
+public class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTimeNanos;
+    private final long size;
+    private final long[] getLatencyBuckets;
+    private final long[] putLatencyBuckets;
+
+    CacheStats(final long hitCount, final long missCount, final long evictionCount, final long loadSuccessCount,
+            final long loadFailureCount, final long totalLoadTimeNanos, final long size,
+            final long[] getLatencyBuckets, final long[] putLatencyBuckets) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.size = size;
+        this.getLatencyBuckets = getLatencyBuckets;
+        this.putLatencyBuckets = putLatencyBuckets;
+    }
+
+    static CacheStats empty(long size) {
+        return new CacheStats(0, 0, 0, 0, 0, 0, size, new long[0], new long[0]);
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long totalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    public double averageLoadPenaltyNanos() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTimeNanos / loads;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param quantile: between 0 and 1, e.g. 0.99.
+     * @return estimated get latency in nanoseconds, 0 if nothing was sampled.
+     */
+    public long getLatencyNanos(double quantile) {
+        return percentile(getLatencyBuckets, quantile);
+    }
+
+    /**
+     * @param quantile: between 0 and 1, e.g. 0.99.
+     * @return estimated put latency in nanoseconds, 0 if nothing was sampled.
+     */
+    public long putLatencyNanos(double quantile) {
+        return percentile(putLatencyBuckets, quantile);
+    }
+
+    private static long percentile(long[] buckets, double quantile) {
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // Bucket i holds latencies below 2^(i+1) nanoseconds.
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << buckets.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "CacheStats{hits=%d, misses=%d, hitRate=%.4f, evictions=%d, loads=%d, loadFailures=%d, "
+                        + "avgLoadPenalty=%.0fns, size=%d, getP50=%dns, getP99=%dns, putP50=%dns, putP99=%dns}",
+                hitCount, missCount, hitRate(), evictionCount, loadSuccessCount, loadFailureCount,
+                averageLoadPenaltyNanos(), size, getLatencyNanos(0.5), getLatencyNanos(0.99),
+                putLatencyNanos(0.5), putLatencyNanos(0.99));
+    }
+}
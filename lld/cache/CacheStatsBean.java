@@ -0,0 +1,96 @@
+package lld.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * CacheStatsMXBean over a snapshot supplier, registered under
+ * lld.cache:type=CacheStats,name=<name>. Every attribute read takes a fresh
+ * snapshot.
+ */
+public class CacheStatsBean implements CacheStatsMXBean {
+
+    private final Supplier<CacheStats> stats;
+
+    CacheStatsBean(final Supplier<CacheStats> stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Registers a cache's stats with the platform MBean server.
+     *
+     * @param name:  name of the cache, unique per JVM.
+     * @param stats: usually a method reference to the cache's stats().
+     */
+    public static ObjectName register(String name, Supplier<CacheStats> stats) throws JMException {
+        ObjectName objectName = new ObjectName("lld.cache:type=CacheStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new CacheStatsBean(stats), objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    @Override
+    public long getHitCount() {
+        return stats.get().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return stats.get().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return stats.get().hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return stats.get().evictionCount();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return stats.get().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return stats.get().loadFailureCount();
+    }
+
+    @Override
+    public double getAverageLoadPenaltyNanos() {
+        return stats.get().averageLoadPenaltyNanos();
+    }
+
+    @Override
+    public long getSize() {
+        return stats.get().size();
+    }
+
+    @Override
+    public long getGetLatencyP50Nanos() {
+        return stats.get().getLatencyNanos(0.5);
+    }
+
+    @Override
+    public long getGetLatencyP99Nanos() {
+        return stats.get().getLatencyNanos(0.99);
+    }
+
+    @Override
+    public long getPutLatencyP50Nanos() {
+        return stats.get().putLatencyNanos(0.5);
+    }
+
+    @Override
+    public long getPutLatencyP99Nanos() {
+        return stats.get().putLatencyNanos(0.99);
+    }
+}
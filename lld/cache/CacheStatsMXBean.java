@@ -0,0 +1,31 @@
+package lld.cache;
+
+/**
+ * JMX view of a cache's statistics, see CacheStatsBean for registration.
+ */
+public interface CacheStatsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getEvictionCount();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadPenaltyNanos();
+
+    long getSize();
+
+    long getGetLatencyP50Nanos();
+
+    long getGetLatencyP99Nanos();
+
+    long getPutLatencyP50Nanos();
+
+    long getPutLatencyP99Nanos();
+}
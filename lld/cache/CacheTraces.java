@@ -0,0 +1,117 @@
+package lld.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Access traces used to compare hit rates of the caches in this package. A
+ * trace is just the sequence of keys requested.
+ */
+public class CacheTraces {
+
+    private CacheTraces() {
+    }
+
+    /**
+     * Zipf distributed accesses over keyCount keys: key i is requested with
+     * probability proportional to 1 / (i + 1)^skew.
+     */
+    public static String[] zipf(int keyCount, double skew, int length, long seed) {
+        double[] cdf = new double[keyCount];
+        double total = 0;
+        for (int i = 0; i < keyCount; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = total;
+        }
+
+        // Scatter ranks over key names so popularity is not correlated with hash order.
+        int[] names = shuffledIds(keyCount, seed);
+        Random random = new Random(seed);
+        String[] trace = new String[length];
+        for (int i = 0; i < length; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            trace[i] = "key" + names[Math.min(rank, keyCount - 1)];
+        }
+        return trace;
+    }
+
+    /**
+     * Uniformly random accesses over keyCount keys.
+     */
+    public static String[] uniform(int keyCount, int length, long seed) {
+        Random random = new Random(seed);
+        String[] trace = new String[length];
+        for (int i = 0; i < length; i++) {
+            trace[i] = "key" + random.nextInt(keyCount);
+        }
+        return trace;
+    }
+
+    /**
+     * Zipf trace where every scanInterval accesses a batch job reads scanLength
+     * keys that are never seen again.
+     */
+    public static String[] scanPolluted(int keyCount, double skew, int length, int scanInterval, int scanLength,
+            long seed) {
+        String[] base = zipf(keyCount, skew, length, seed);
+        String[] trace = new String[length];
+        int scanned = 0;
+        for (int i = 0; i < length; i++) {
+            boolean inScan = i % scanInterval >= scanInterval - scanLength;
+            trace[i] = inScan ? "scan" + (scanned++) : base[i];
+        }
+        return trace;
+    }
+
+    /**
+     * Zipf trace whose hot set changes completely every length / phases
+     * accesses, so keys that were popular earlier go stale.
+     */
+    public static String[] shifting(int keyCount, double skew, int length, int phases, long seed) {
+        String[] trace = new String[length];
+        int phaseLength = length / phases;
+        for (int phase = 0; phase < phases; phase++) {
+            int from = phase * phaseLength;
+            int to = phase == phases - 1 ? length : from + phaseLength;
+            String[] part = zipf(keyCount, skew, to - from, seed + phase);
+            for (int i = 0; i < part.length; i++) {
+                trace[from + i] = "p" + phase + ":" + part[i];
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Loads a recorded trace, one key per line. Blank lines are skipped.
+     */
+    public static String[] fromFile(Path file) throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String key = line.trim();
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    private static int[] shuffledIds(int count, long seed) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = temp;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,62 @@
+package lld.cache;
+
+/**
+ * CLOCK (second chance). Nodes sit on a circular list with a reference bit that
+ * an access sets. The hand sweeps the list, clearing bits, and evicts the first
+ * node it finds with the bit already clear. Hits never reorder the list.
+ */
+public class ClockPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private final Cache.NodeList<K, V> list = new Cache.NodeList<>();
+    private Cache.Node<K, V> hand;
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        node.referenced = false;
+        // New nodes go right behind the hand, so they are the last ones it reaches.
+        if (hand == null) {
+            list.addLast(node);
+            hand = node;
+        } else {
+            list.addBefore(hand, node);
+        }
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        node.referenced = true;
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        if (node == hand) {
+            hand = advance(node);
+        }
+        list.remove(node);
+        if (list.isEmpty()) {
+            hand = null;
+        }
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        while (hand.referenced) {
+            hand.referenced = false;
+            hand = advance(hand);
+        }
+
+        Cache.Node<K, V> victim = hand;
+        onRemove(victim);
+        return victim;
+    }
+
+    @Override
+    public String name() {
+        return "CLOCK";
+    }
+
+    private Cache.Node<K, V> advance(Cache.Node<K, V> node) {
+        Cache.Node<K, V> next = list.after(node);
+        return next != null ? next : list.first();
+    }
+}
@@ -0,0 +1,286 @@
+package lld.cache;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.ObjectName;
+
+/**
+ * Thread safe LRU cache that splits the key space into independently locked
+ * shards.
+ *
+ * Every shard is a small LRUCache of its own (HashMap + doubly linked list)
+ * guarded by its own lock and owning its share of the total capacity. A key is
+ * always routed to the same shard, so threads touching different shards never
+ * wait on each other. Eviction is exact LRU inside a shard and approximately
+ * LRU across the whole cache.
+ */
+public class ConcurrentLRUCache {
+
+    /**
+     * Static class for a cache node.
+     */
+    private static class CacheNode {
+        private final String key;
+        private int value;
+        private CacheNode prev;
+        private CacheNode next;
+
+        CacheNode(final String key, final int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One independently locked LRU segment.
+     */
+    private static class Shard {
+        private final int capacity;
+        private final Map<String, CacheNode> store;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final StatsCounter stats;
+        private final CacheNode head;
+        private final CacheNode tail;
+
+        Shard(final int capacity, final StatsCounter stats) {
+            this.capacity = capacity;
+            this.store = new HashMap<>();
+            this.stats = stats;
+
+            head = new CacheNode(null, -1);
+            tail = new CacheNode(null, -1);
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void put(String key, int value) {
+            lock.lock();
+            try {
+                CacheNode node = store.get(key);
+                if (node != null) {
+                    // Overwrite in place, no need for a new node.
+                    node.value = value;
+                    deleteNode(node);
+                    addNode(node);
+                    return;
+                }
+
+                if (store.size() == capacity) {
+                    CacheNode nodeToRemove = tail.prev;
+                    deleteNode(nodeToRemove);
+                    store.remove(nodeToRemove.key);
+                    stats.recordEviction();
+                }
+
+                node = new CacheNode(key, value);
+                addNode(node);
+                store.put(key, node);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int get(String key) {
+            lock.lock();
+            try {
+                CacheNode node = store.get(key);
+                if (node == null) {
+                    return -1;
+                }
+
+                // Move the node to the front of the DLL, the map entry stays as it is.
+                deleteNode(node);
+                addNode(node);
+                return node.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return store.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void addNode(CacheNode node) {
+            CacheNode temp = head.next;
+
+            node.next = temp;
+            node.prev = head;
+
+            temp.prev = node;
+            head.next = node;
+        }
+
+        private void deleteNode(CacheNode node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+        }
+    }
+
+    private final Shard[] shards;
+    private final int shardMask;
+    private final StatsCounter stats;
+
+    /**
+     * Creates a cache with a shard count derived from the number of cores.
+     *
+     * @param capacity: total number of entries the cache can hold.
+     */
+    public ConcurrentLRUCache(final int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param capacity:   total number of entries the cache can hold.
+     * @param shardCount: requested number of shards, rounded up to a power of two
+     *                    and capped so that every shard holds at least one entry.
+     */
+    public ConcurrentLRUCache(final int capacity, final int shardCount) {
+        this(capacity, shardCount, StatsCounter.disabled());
+    }
+
+    /**
+     * @param capacity:   total number of entries the cache can hold.
+     * @param shardCount: requested number of shards.
+     * @param stats:      shared by all shards, use a ConcurrentStatsCounter.
+     */
+    public ConcurrentLRUCache(final int capacity, final int shardCount, final StatsCounter stats) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        int shardsNeeded = Math.max(1, Math.min(shardCount, capacity));
+        int count = Integer.highestOneBit(shardsNeeded);
+        if (count < shardsNeeded) {
+            count <<= 1;
+        }
+        if (count > capacity) {
+            count >>= 1;
+        }
+
+        this.shards = new Shard[count];
+        this.shardMask = count - 1;
+        this.stats = stats;
+
+        // Spread the capacity so the shards sum up to exactly the requested capacity.
+        for (int i = 0; i < count; i++) {
+            int share = capacity / count + (i < capacity % count ? 1 : 0);
+            shards[i] = new Shard(share, stats);
+        }
+    }
+
+    /**
+     * Adds the key value pair to the cache.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, int value) {
+        long start = stats.startTimer();
+        shardFor(key).put(key, value);
+        stats.recordPutLatency(start);
+    }
+
+    /**
+     * Gets the value of the key if it exists, otherwise returns -1.
+     *
+     * @param key
+     * @return
+     */
+    public int get(String key) {
+        long start = stats.startTimer();
+        int value = shardFor(key).get(key);
+        if (value == -1) {
+            stats.recordMisses(1);
+        } else {
+            stats.recordHits(1);
+        }
+        stats.recordGetLatency(start);
+        return value;
+    }
+
+    /**
+     * Snapshot of the cache statistics, all zero unless a StatsCounter was passed in.
+     */
+    public CacheStats stats() {
+        return stats.snapshot(size());
+    }
+
+    /**
+     * @return number of entries across all shards. Not an atomic snapshot.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    private Shard shardFor(String key) {
+        // Spread the hash so keys with similar low bits still land on different shards.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    public static void main(String[] args) throws Exception {
+        // A single shard behaves exactly like LRUCache.
+        ConcurrentLRUCache lruCache = new ConcurrentLRUCache(3, 1);
+
+        lruCache.put("key1", 1);
+        lruCache.put("key2", 2);
+
+        System.out.println(lruCache.get("key1")); // should be 1
+        System.out.println(lruCache.get("key2")); // should be 2
+
+        lruCache.put("key3", 3);
+        lruCache.put("key4", 4);
+
+        System.out.println(lruCache.get("key1")); // should be -1
+        System.out.println(lruCache.get("key3")); // should be 3
+
+        lruCache.put("key2", 8);
+        System.out.println(lruCache.get("key3")); // should be 3
+        lruCache.put("key5", 5);
+        System.out.println(lruCache.get("key4")); // should be -1
+        System.out.println(lruCache.get("key5")); // should be 5
+
+        // Many threads hammering a sharded cache, with stats exposed over JMX.
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ConcurrentLRUCache cache = new ConcurrentLRUCache(10_000, threadCount * 4, new ConcurrentStatsCounter());
+        ObjectName statsBean = CacheStatsBean.register("demo", cache::stats);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 200_000; i++) {
+                    String key = "key" + random.nextInt(20_000);
+                    if (cache.get(key) == -1) {
+                        cache.put(key, i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.println("shards: " + cache.shardCount() + ", size: " + cache.size()); // size <= 10000
+        System.out.println(cache.stats());
+        CacheStatsBean.unregister(statsBean);
+    }
+}
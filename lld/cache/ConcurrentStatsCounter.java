@@ -0,0 +1,117 @@
+package lld.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe StatsCounter. Counters are LongAdders, which stripe updates
+ * across cells so concurrent hits don't contend on one cache line.
+ *
+ * One in every sampleRate get/put calls is timed into a log2 latency
+ * histogram; the others skip the clock reads entirely.
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+
+    private static final int LATENCY_BUCKETS = 40; // up to ~18 minutes in nanoseconds
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final AtomicLongArray getLatency = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLongArray putLatency = new AtomicLongArray(LATENCY_BUCKETS);
+    private final int sampleMask;
+
+    /**
+     * Samples one in 64 operations for latency.
+     */
+    public ConcurrentStatsCounter() {
+        this(64);
+    }
+
+    /**
+     * @param sampleRate: one in sampleRate operations is timed, rounded up to a
+     *                    power of two. 0 disables latency sampling.
+     */
+    public ConcurrentStatsCounter(final int sampleRate) {
+        if (sampleRate <= 0) {
+            this.sampleMask = -1;
+        } else {
+            int rate = Integer.highestOneBit(Math.max(1, sampleRate * 2 - 1));
+            this.sampleMask = rate - 1;
+        }
+    }
+
+    @Override
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    @Override
+    public void recordEviction() {
+        evictionCount.increment();
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTimeNanos) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public long startTimer() {
+        if (sampleMask == -1 || (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        return now == 0 ? 1 : now;
+    }
+
+    @Override
+    public void recordGetLatency(long start) {
+        if (start != 0) {
+            record(getLatency, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void recordPutLatency(long start) {
+        if (start != 0) {
+            record(putLatency, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public CacheStats snapshot(long size) {
+        return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), loadSuccessCount.sum(),
+                loadFailureCount.sum(), totalLoadTime.sum(), size, toArray(getLatency), toArray(putLatency));
+    }
+
+    private static void record(AtomicLongArray histogram, long nanos) {
+        // Bucket i counts latencies in [2^i, 2^(i+1)).
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+        histogram.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,41 @@
+package lld.cache;
+
+/**
+ * Decides which entry a Cache evicts. The cache owns the nodes and calls back
+ * into the policy on every insert, access and removal.
+ */
+public interface EvictionPolicy<K, V> {
+
+    /**
+     * Called once by the Cache the policy is given to, before any other call.
+     * Policies sized from the cache, like ARC, take the capacity from here.
+     */
+    default void init(int capacity) {
+    }
+
+    /**
+     * A new node was added to the cache.
+     */
+    void onInsert(Cache.Node<K, V> node);
+
+    /**
+     * A node was read, or its value was overwritten.
+     */
+    void onAccess(Cache.Node<K, V> node);
+
+    /**
+     * A node was removed from the cache explicitly.
+     */
+    void onRemove(Cache.Node<K, V> node);
+
+    /**
+     * Called when the cache is full and incomingKey is about to be inserted.
+     * The policy detaches the victim from its own structures and returns it.
+     *
+     * @param incomingKey: key that needs the space, some policies adapt on it.
+     * @return the node to evict.
+     */
+    Cache.Node<K, V> evict(K incomingKey);
+
+    String name();
+}
@@ -0,0 +1,469 @@
+package lld.cache;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * LRU cache with an optional time to live per entry.
+ *
+ * Expired entries are never returned: get checks the deadline and drops the
+ * entry lazily. They are also reclaimed without scanning the map, using a
+ * hierarchical timing wheel: five levels of 64 buckets whose bucket width grows
+ * from 64ms to about 12 days. An entry is filed in the finest level that can
+ * hold its deadline. A coarse bucket is emptied as soon as time enters it, its
+ * entries cascading down to a finer level, and a 64ms bucket once time has
+ * passed it, so an expired entry waits in the wheel for at most the 64ms
+ * bucket holding the current time. The wheel is advanced on every write, and
+ * optionally by a background sweeper. A write to a full cache also reclaims
+ * the expired entries of that last bucket, so expired entries give their
+ * capacity back before any live entry is evicted.
+ *
+ * All operations lock the cache, like a synchronized LRUCache.
+ */
+public class ExpiringLRUCache implements AutoCloseable {
+
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /**
+     * Cache node, linked into the recency list and into a timer wheel bucket.
+     */
+    private static class CacheNode {
+        private final String key;
+        private int value;
+        private long expiresAt;
+        private CacheNode prev;
+        private CacheNode next;
+        private CacheNode wheelPrev;
+        private CacheNode wheelNext;
+
+        CacheNode(final String key, final int value, final long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Hierarchical timing wheel over the node deadlines. Every bucket is a
+     * circular list with a sentinel.
+     */
+    private class TimerWheel {
+        private static final int BUCKETS = 64;
+        private static final int MASK = BUCKETS - 1;
+        // Bucket widths of 64ms, 4.1s, 4.4min, 4.7h and 12.4 days.
+        private final int[] shifts = { 6, 12, 18, 24, 30 };
+        private final CacheNode[][] wheel = new CacheNode[shifts.length][BUCKETS];
+        private long currentTime;
+
+        TimerWheel(final long now) {
+            this.currentTime = now;
+            for (CacheNode[] level : wheel) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    CacheNode sentinel = new CacheNode(null, -1, NO_EXPIRY);
+                    sentinel.wheelPrev = sentinel;
+                    sentinel.wheelNext = sentinel;
+                    level[i] = sentinel;
+                }
+            }
+        }
+
+        void schedule(CacheNode node) {
+            long delay = Math.max(0, node.expiresAt - currentTime);
+            int level = shifts.length - 1;
+            for (int i = 0; i < shifts.length; i++) {
+                if (delay < ((long) BUCKETS << shifts[i])) {
+                    level = i;
+                    break;
+                }
+            }
+
+            int index = (int) ((node.expiresAt >>> shifts[level]) & MASK);
+            CacheNode sentinel = wheel[level][index];
+            node.wheelPrev = sentinel.wheelPrev;
+            node.wheelNext = sentinel;
+            sentinel.wheelPrev.wheelNext = node;
+            sentinel.wheelPrev = node;
+        }
+
+        void deschedule(CacheNode node) {
+            if (node.wheelNext != null) {
+                node.wheelNext.wheelPrev = node.wheelPrev;
+                node.wheelPrev.wheelNext = node.wheelNext;
+                node.wheelNext = null;
+                node.wheelPrev = null;
+            }
+        }
+
+        /**
+         * Empties every 64ms bucket the clock moved past since the last call,
+         * and every coarser bucket it moved into. Work is bounded by 64 buckets
+         * per level plus the entries in them.
+         */
+        void advance(long now) {
+            long previousTime = currentTime;
+            if (now <= previousTime) {
+                return;
+            }
+            currentTime = now;
+
+            for (int level = 0; level < shifts.length; level++) {
+                long previousTicks = previousTime >>> shifts[level];
+                long currentTicks = now >>> shifts[level];
+                if (currentTicks == previousTicks) {
+                    // Coarser levels haven't moved either.
+                    break;
+                }
+
+                long buckets = Math.min(currentTicks - previousTicks, BUCKETS);
+                // A coarse bucket only holds deadlines at least one of its ticks ahead, it is
+                // due once time enters it. Its entries move down to the current finer buckets.
+                long from = level == 0 ? previousTicks : currentTicks - buckets + 1;
+                for (long tick = from; tick < from + buckets; tick++) {
+                    expireBucket(level, (int) (tick & MASK), now);
+                }
+            }
+        }
+
+        /**
+         * Removes the expired entries of the 64ms bucket holding the current
+         * time, the only ones advance leaves in the wheel.
+         */
+        void expireCurrent(long now) {
+            CacheNode sentinel = wheel[0][(int) ((currentTime >>> shifts[0]) & MASK)];
+            CacheNode node = sentinel.wheelNext;
+            while (node != sentinel) {
+                CacheNode next = node.wheelNext;
+                if (node.expiresAt <= now) {
+                    deschedule(node);
+                    removeExpired(node);
+                }
+                node = next;
+            }
+        }
+
+        private void expireBucket(int level, int index, long now) {
+            CacheNode sentinel = wheel[level][index];
+            CacheNode node = sentinel.wheelNext;
+
+            // Detach the whole bucket first, rescheduled nodes may land in it again.
+            sentinel.wheelPrev.wheelNext = null;
+            sentinel.wheelNext = sentinel;
+            sentinel.wheelPrev = sentinel;
+
+            while (node != null && node != sentinel) {
+                CacheNode next = node.wheelNext;
+                node.wheelPrev = null;
+                node.wheelNext = null;
+
+                if (node.expiresAt <= now) {
+                    removeExpired(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private final int capacity;
+    private final LongSupplier clock;
+    private final Map<String, CacheNode> store;
+    private final TimerWheel timerWheel;
+    private final CacheNode head;
+    private final CacheNode tail;
+    private final StatsCounter stats;
+    private ScheduledExecutorService sweeper;
+    private long expiredCount;
+
+    public ExpiringLRUCache(final int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    /**
+     * @param capacity: maximum number of live entries.
+     * @param clock:    time source in milliseconds.
+     */
+    public ExpiringLRUCache(final int capacity, final LongSupplier clock) {
+        this(capacity, clock, StatsCounter.disabled());
+    }
+
+    /**
+     * @param capacity: maximum number of live entries.
+     * @param clock:    time source in milliseconds.
+     * @param stats:    records hits, misses and evictions, expiry included.
+     */
+    public ExpiringLRUCache(final int capacity, final LongSupplier clock, final StatsCounter stats) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.clock = clock;
+        this.stats = stats;
+        this.store = new HashMap<>();
+        this.timerWheel = new TimerWheel(clock.getAsLong());
+
+        head = new CacheNode(null, -1, NO_EXPIRY);
+        tail = new CacheNode(null, -1, NO_EXPIRY);
+        head.next = tail;
+        tail.prev = head;
+    }
+
+    /**
+     * Adds the key value pair to the cache, without expiry.
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void put(String key, int value) {
+        put(key, value, 0);
+    }
+
+    /**
+     * Adds the key value pair to the cache.
+     *
+     * @param key
+     * @param value
+     * @param ttlMillis: time to live, 0 or less means the entry never expires.
+     */
+    public synchronized void put(String key, int value, long ttlMillis) {
+        long start = stats.startTimer();
+        long now = clock.getAsLong();
+        timerWheel.advance(now);
+
+        long expiresAt = ttlMillis > 0 ? now + ttlMillis : NO_EXPIRY;
+        CacheNode node = store.get(key);
+        if (node != null) {
+            node.value = value;
+            reschedule(node, expiresAt);
+            deleteNode(node);
+            addNode(node);
+            stats.recordPutLatency(start);
+            return;
+        }
+
+        if (store.size() == capacity) {
+            reclaimExpired(now);
+        }
+        if (store.size() == capacity) {
+            CacheNode nodeToRemove = tail.prev;
+            deleteNode(nodeToRemove);
+            timerWheel.deschedule(nodeToRemove);
+            store.remove(nodeToRemove.key);
+            stats.recordEviction();
+        }
+
+        node = new CacheNode(key, value, expiresAt);
+        if (expiresAt != NO_EXPIRY) {
+            timerWheel.schedule(node);
+        }
+        addNode(node);
+        store.put(key, node);
+        stats.recordPutLatency(start);
+    }
+
+    /**
+     * Gets the value of the key if it exists and has not expired, otherwise
+     * returns -1.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized int get(String key) {
+        CacheNode node = lookup(key);
+        return node == null ? -1 : node.value;
+    }
+
+    /**
+     * Like get, but returns null on a miss, so a cached -1 is told apart from
+     * a missing key.
+     */
+    synchronized Integer getIfPresent(String key) {
+        CacheNode node = lookup(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Like getIfPresent, but does not touch recency or stats.
+     */
+    synchronized Integer peek(String key) {
+        CacheNode node = store.get(key);
+        return node == null || node.expiresAt <= clock.getAsLong() ? null : node.value;
+    }
+
+    /**
+     * Snapshot of the cache statistics, all zero unless a StatsCounter was passed in.
+     */
+    public synchronized CacheStats stats() {
+        return stats.snapshot(store.size());
+    }
+
+    /**
+     * Advances the timer wheel, reclaiming everything that has expired.
+     */
+    public synchronized void cleanUp() {
+        timerWheel.advance(clock.getAsLong());
+    }
+
+    /**
+     * Starts a daemon thread that calls cleanUp at a fixed rate, so expired
+     * entries are reclaimed even when there are no writes.
+     */
+    public synchronized void startSweeper(long periodMillis) {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiring-lru-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::cleanUp, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    public synchronized int size() {
+        return store.size();
+    }
+
+    public synchronized long expiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return the deadline of the key, Long.MAX_VALUE if it never expires, or -1
+     *         if the key is not cached. Does not count as an access.
+     */
+    synchronized long expiresAt(String key) {
+        CacheNode node = store.get(key);
+        return node == null ? -1 : node.expiresAt;
+    }
+
+    // The live node of the key, null on a miss. Records the access like get.
+    private CacheNode lookup(String key) {
+        long start = stats.startTimer();
+        CacheNode node = store.get(key);
+        if (node == null) {
+            stats.recordMisses(1);
+            stats.recordGetLatency(start);
+            return null;
+        }
+
+        if (node.expiresAt <= clock.getAsLong()) {
+            timerWheel.deschedule(node);
+            removeExpired(node);
+            stats.recordMisses(1);
+            stats.recordGetLatency(start);
+            return null;
+        }
+
+        deleteNode(node);
+        addNode(node);
+        stats.recordHits(1);
+        stats.recordGetLatency(start);
+        return node;
+    }
+
+    // Frees capacity held by entries that have expired but are still in the wheel
+    private void reclaimExpired(long now) {
+        CacheNode lru = tail.prev;
+        if (lru.expiresAt <= now) {
+            timerWheel.deschedule(lru);
+            removeExpired(lru);
+            return;
+        }
+        timerWheel.expireCurrent(now);
+    }
+
+    private void reschedule(CacheNode node, long expiresAt) {
+        timerWheel.deschedule(node);
+        node.expiresAt = expiresAt;
+        if (expiresAt != NO_EXPIRY) {
+            timerWheel.schedule(node);
+        }
+    }
+
+    // Node must already be off the timer wheel.
+    private void removeExpired(CacheNode node) {
+        deleteNode(node);
+        store.remove(node.key);
+        expiredCount++;
+        stats.recordEviction();
+    }
+
+    private void addNode(CacheNode node) {
+        CacheNode temp = head.next;
+
+        node.next = temp;
+        node.prev = head;
+
+        temp.prev = node;
+        head.next = node;
+    }
+
+    private void deleteNode(CacheNode node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long[] now = { 0 };
+        ExpiringLRUCache cache = new ExpiringLRUCache(3, () -> now[0]);
+
+        cache.put("session1", 1, 1_000);
+        cache.put("session2", 2, 60_000);
+        cache.put("config", 3); // never expires
+
+        now[0] = 500;
+        System.out.println(cache.get("session1")); // should be 1
+
+        now[0] = 1_000;
+        System.out.println(cache.get("session1")); // should be -1, expired on read
+
+        cache.put("session3", 4, 1_000);
+        now[0] = 2_500;
+        // The write advances the wheel, session3 is reclaimed so nothing live is evicted.
+        cache.put("session4", 5, 1_000);
+        System.out.println(cache.size()); // should be 3
+        System.out.println(cache.get("session2")); // should be 2
+        System.out.println(cache.get("config")); // should be 3
+
+        now[0] = 70_000;
+        cache.cleanUp(); // session2 and session4 expire without a write
+        System.out.println(cache.size() + " live, " + cache.expiredCount() + " expired"); // 1 live, 4 expired
+
+        // Expired but still inside the current 64ms bucket: reclaimed before the LRU entry is evicted.
+        cache.put("session5", 6, 10);
+        cache.put("session6", 7);
+        now[0] = 70_020;
+        cache.put("session7", 8);
+        System.out.println(cache.get("config") + " " + cache.get("session5")); // should be 3 -1
+
+        // Expired inside a 4.1s bucket that time has just entered.
+        now[0] = 80_000;
+        cache.put("session8", 9, 5_000);
+        now[0] = 85_100;
+        cache.put("session9", 10);
+        System.out.println(cache.get("session7") + " " + cache.get("session8")); // should be 8 -1
+
+        // Real clock with a background sweeper.
+        try (ExpiringLRUCache swept = new ExpiringLRUCache(100)) {
+            swept.startSweeper(50);
+            for (int i = 0; i < 50; i++) {
+                swept.put("key" + i, i, 100);
+            }
+            Thread.sleep(400);
+            System.out.println("after sweep: " + swept.size()); // should be 0
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package lld.cache;
+
+/**
+ * First in, first out: accesses don't change the order, the oldest insert is
+ * evicted.
+ */
+public class FIFOPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private final Cache.NodeList<K, V> list = new Cache.NodeList<>();
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        list.addFirst(node);
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        // Insertion order only.
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        list.remove(node);
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        Cache.Node<K, V> victim = list.last();
+        list.remove(victim);
+        return victim;
+    }
+
+    @Override
+    public String name() {
+        return "FIFO";
+    }
+}
@@ -0,0 +1,137 @@
+package lld.cache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Churn benchmark comparing the GC pressure of the node based LRUCache with
+ * PrimitiveLRUCache.
+ *
+ * The key space is four times the capacity, so most puts evict. Keys are
+ * created up front so the numbers only reflect what the caches allocate.
+ * Reports bytes allocated per operation, allocation rate, and the number, total
+ * and worst duration of GC pauses seen while the workload ran.
+ */
+public class GcPressureBenchmark {
+
+    private static final int CAPACITY = 100_000;
+    private static final int KEY_SPACE = CAPACITY * 4;
+    private static final int OPERATIONS = 20_000_000;
+
+    /**
+     * Minimal put/get view over the two caches under test.
+     */
+    private interface IntCache {
+        void put(String key, int value);
+
+        int get(String key);
+    }
+
+    private static final AtomicLong pauseCount = new AtomicLong();
+    private static final AtomicLong pauseTotalMillis = new AtomicLong();
+    private static final AtomicLong pauseMaxMillis = new AtomicLong();
+
+    public static void main(String[] args) {
+        String[] keys = new String[KEY_SPACE];
+        for (int i = 0; i < KEY_SPACE; i++) {
+            keys[i] = "key" + i;
+        }
+
+        installPauseListener();
+
+        for (int round = 0; round < 2; round++) {
+            // First round is warm up, only the second is reported.
+            boolean report = round == 1;
+
+            LRUCache lruCache = new LRUCache(CAPACITY);
+            run("LRUCache", new IntCache() {
+                public void put(String key, int value) {
+                    lruCache.put(key, value);
+                }
+
+                public int get(String key) {
+                    return lruCache.get(key);
+                }
+            }, keys, report);
+
+            PrimitiveLRUCache primitiveCache = new PrimitiveLRUCache(CAPACITY);
+            run("PrimitiveLRUCache", new IntCache() {
+                public void put(String key, int value) {
+                    primitiveCache.put(key, value);
+                }
+
+                public int get(String key) {
+                    return primitiveCache.get(key);
+                }
+            }, keys, report);
+        }
+    }
+
+    private static void run(String name, IntCache cache, String[] keys, boolean report) {
+        // Fill the cache first so the measured phase is steady state churn.
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(keys[i], i);
+        }
+        System.gc();
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long pausesBefore = pauseCount.get();
+        long pauseMillisBefore = pauseTotalMillis.get();
+        pauseMaxMillis.set(0);
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+
+        Random random = new Random(42);
+        long sink = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            String key = keys[random.nextInt(KEY_SPACE)];
+            int value = cache.get(key);
+            if (value == -1) {
+                cache.put(key, i);
+            } else {
+                sink += value;
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - begin;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        if (report) {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%-18s ops/sec=%,.0f bytes/op=%.1f alloc=%,.1f MB/s gcPauses=%d totalPause=%dms maxPause=%dms (sink %d)%n",
+                    name, OPERATIONS / seconds, (double) allocated / OPERATIONS, allocated / seconds / (1 << 20),
+                    pauseCount.get() - pausesBefore, pauseTotalMillis.get() - pauseMillisBefore,
+                    pauseMaxMillis.get(), sink);
+        }
+    }
+
+    private static void installPauseListener() {
+        NotificationListener listener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData());
+            long duration = info.getGcInfo().getDuration();
+            pauseCount.incrementAndGet();
+            pauseTotalMillis.addAndGet(duration);
+            pauseMaxMillis.accumulateAndGet(duration, Math::max);
+        };
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+}
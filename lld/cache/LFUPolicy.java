@@ -0,0 +1,157 @@
+package lld.cache;
+
+/**
+ * Least frequently used with O(1) insert, access and eviction.
+ *
+ * Nodes with the same access count share a frequency bucket, and the buckets
+ * form a doubly linked list in ascending frequency order. An access moves the
+ * node to the front of the next bucket (created on demand), the victim is the
+ * least recently used node of the first bucket, so ties are broken by LRU.
+ *
+ * With decay enabled every count is halved after a fixed number of operations,
+ * so keys that were popular once but are no longer used age out instead of
+ * staying in the cache forever.
+ */
+public class LFUPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    /**
+     * Nodes accessed exactly frequency times, front is most recently used.
+     */
+    private static class FrequencyBucket<K, V> extends Cache.NodeList<K, V> {
+        private int frequency;
+        private FrequencyBucket<K, V> prevBucket;
+        private FrequencyBucket<K, V> nextBucket;
+
+        FrequencyBucket(final int frequency) {
+            this.frequency = frequency;
+        }
+    }
+
+    // Sentinels of the bucket list.
+    private final FrequencyBucket<K, V> head = new FrequencyBucket<>(0);
+    private final FrequencyBucket<K, V> tail = new FrequencyBucket<>(Integer.MAX_VALUE);
+    private final int decayInterval;
+    private int operations;
+
+    /**
+     * LFU without decay.
+     */
+    public LFUPolicy() {
+        this(0);
+    }
+
+    /**
+     * @param decayInterval: number of inserts and accesses after which all counts
+     *                       are halved, 0 disables decay. Use at least the cache
+     *                       capacity to keep the halving cost amortized O(1).
+     */
+    public LFUPolicy(final int decayInterval) {
+        this.decayInterval = decayInterval;
+        head.nextBucket = tail;
+        tail.prevBucket = head;
+    }
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        FrequencyBucket<K, V> first = head.nextBucket;
+        if (first.frequency != 1) {
+            first = insertBucketAfter(head, 1);
+        }
+        first.addFirst(node);
+        tick();
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        FrequencyBucket<K, V> bucket = bucketOf(node);
+        FrequencyBucket<K, V> next = bucket.nextBucket;
+        if (next.frequency != bucket.frequency + 1) {
+            next = insertBucketAfter(bucket, bucket.frequency + 1);
+        }
+
+        bucket.remove(node);
+        next.addFirst(node);
+        if (bucket.isEmpty()) {
+            unlinkBucket(bucket);
+        }
+        tick();
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        FrequencyBucket<K, V> bucket = bucketOf(node);
+        bucket.remove(node);
+        if (bucket.isEmpty()) {
+            unlinkBucket(bucket);
+        }
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        FrequencyBucket<K, V> first = head.nextBucket;
+        Cache.Node<K, V> victim = first.last();
+        onRemove(victim);
+        return victim;
+    }
+
+    @Override
+    public String name() {
+        return decayInterval > 0 ? "LFU+decay" : "LFU";
+    }
+
+    private void tick() {
+        if (decayInterval > 0 && ++operations >= decayInterval) {
+            operations = 0;
+            decay();
+        }
+    }
+
+    /**
+     * Halves every count. Buckets stay in order because halving is monotonic,
+     * only neighbours that end up with the same count get merged.
+     */
+    private void decay() {
+        FrequencyBucket<K, V> bucket = head.nextBucket;
+        while (bucket != tail) {
+            FrequencyBucket<K, V> next = bucket.nextBucket;
+            int frequency = Math.max(1, bucket.frequency >> 1);
+            FrequencyBucket<K, V> previous = bucket.prevBucket;
+
+            if (previous != head && previous.frequency == frequency) {
+                // Merge into the previous bucket, the formerly hotter nodes go in front.
+                Cache.Node<K, V> node = bucket.last();
+                while (node != null) {
+                    Cache.Node<K, V> prevNode = node.prev.list == bucket ? node.prev : null;
+                    bucket.remove(node);
+                    previous.addFirst(node);
+                    node = prevNode;
+                }
+                unlinkBucket(bucket);
+            } else {
+                bucket.frequency = frequency;
+            }
+            bucket = next;
+        }
+    }
+
+    private FrequencyBucket<K, V> bucketOf(Cache.Node<K, V> node) {
+        return (FrequencyBucket<K, V>) node.list;
+    }
+
+    private FrequencyBucket<K, V> insertBucketAfter(FrequencyBucket<K, V> bucket, int frequency) {
+        FrequencyBucket<K, V> created = new FrequencyBucket<>(frequency);
+        FrequencyBucket<K, V> next = bucket.nextBucket;
+
+        created.prevBucket = bucket;
+        created.nextBucket = next;
+
+        next.prevBucket = created;
+        bucket.nextBucket = created;
+        return created;
+    }
+
+    private void unlinkBucket(FrequencyBucket<K, V> bucket) {
+        bucket.prevBucket.nextBucket = bucket.nextBucket;
+        bucket.nextBucket.prevBucket = bucket.prevBucket;
+    }
+}
@@ -1,80 +1,52 @@
 package lld.cache;
 
-import java.util.*;
-
-class CacheNode {
-    int value;
-    String key;
-    CacheNode next;
-    CacheNode prev;
-
-    CacheNode(final String key, final int value) {
-        this.value = value;
-        this.key = key;
-    }
-}
-
+/**
+ * LRU cache with String keys and int values, -1 on a miss. A thin facade over
+ * Cache with an LRUPolicy, which owns the map and the recency list.
+ */
 public class LRUCache {
 
-    private final int capacity;
-    private final Map<String, CacheNode> store;
+    private final LRUPolicy<String, Integer> policy = new LRUPolicy<>();
+    private final Cache<String, Integer> cache;
 
-    CacheNode head;
-    CacheNode tail;
+    /**
+     * Receives the entries of forEachLeastRecentFirst.
+     */
+    interface EntryVisitor {
+        void visit(String key, int value);
+    }
 
     LRUCache(final int capacity) {
-        this.capacity = capacity;
-        this.store = new HashMap<>();
-
-        head = new CacheNode("-1", -1);
-        tail = new CacheNode("-1", -1);
-        head.next = tail;
-        tail.prev = head;
+        this(capacity, StatsCounter.disabled());
     }
 
-    private void put(String key, int value) {
-        if (store.containsKey(key)) {
-            CacheNode node = store.get(key);
-            store.remove(key);
-            deleteNode(node);
-        }
-
-        if (store.size() == capacity) {
-            store.remove(tail.prev.key);
-            deleteNode(tail.prev);
-        }
-
-        addNode(new CacheNode(key, value));
-        store.put(key, head.next);
+    LRUCache(final int capacity, final StatsCounter stats) {
+        this.cache = new Cache<>(capacity, policy, stats);
     }
 
-    private int get(String key) {
-        if (store.containsKey(key)) {
-            CacheNode node = store.get(key);
-            store.remove(key);
-            deleteNode(node);
-            addNode(node);
-
-            store.put(key, head.next);
-            return node.value;
-        }
-
-        return -1;
+    void put(String key, int value) {
+        cache.put(key, value);
     }
 
-    private void addNode(CacheNode node) {
-        CacheNode temp = head.next;
+    int get(String key) {
+        Integer value = cache.get(key);
+        return value == null ? -1 : value;
+    }
 
-        node.next = temp;
-        node.prev = head;
+    int size() {
+        return cache.size();
+    }
 
-        temp.prev = node;
-        head.next = node;
+    CacheStats stats() {
+        return cache.stats();
     }
 
-    private void deleteNode(CacheNode node) {
-        node.prev.next = node.next;
-        node.next.prev = node.prev;
+    /**
+     * Visits every entry from least to most recently used, without changing
+     * the recency order.
+     */
+    void forEachLeastRecentFirst(EntryVisitor visitor) {
+        policy.forEachLeastRecentFirst(node -> visitor.visit(node.key, node.value));
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,294 @@
+package lld.cache;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves an LRUCache to disk and loads it back, so a restarted process starts
+ * with a warm cache instead of an empty one.
+ *
+ * The snapshot is a compact binary file:
+ *
+ * [magic int][version int][count int] then per entry
+ * [keyLen varint][key UTF-8 bytes][value int]
+ *
+ * Entries are written from least to most recently used. Loading simply puts
+ * them in file order, so the recency order is restored exactly and, if the
+ * new cache is smaller, the oldest entries are the ones that get evicted. The
+ * file is read through memory mapped windows, one pass with no per entry I/O.
+ *
+ * LRUCache is not thread safe: the snapshot copies the entries while holding
+ * the cache's monitor, so code sharing a cache with periodic snapshots has to
+ * synchronize on the cache as well.
+ */
+public class LRUCacheSnapshot implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C525553; // "LRUS"
+    private static final int VERSION = 1;
+    private static final int MAP_WINDOW = 64 << 20;
+
+    private final LRUCache cache;
+    private final Path file;
+    private ScheduledExecutorService scheduler;
+    private Thread shutdownHook;
+
+    /**
+     * @param cache: the cache to save.
+     * @param file:  snapshot location, replaced atomically on every save.
+     */
+    public LRUCacheSnapshot(final LRUCache cache, final Path file) {
+        this.cache = cache;
+        this.file = file;
+    }
+
+    /**
+     * Saves the cache now.
+     */
+    public void save() throws IOException {
+        String[] keys;
+        int[] values;
+        synchronized (cache) {
+            int count = cache.size();
+            keys = new String[count];
+            values = new int[count];
+            int[] next = new int[1];
+            cache.forEachLeastRecentFirst((key, value) -> {
+                keys[next[0]] = key;
+                values[next[0]] = value;
+                next[0]++;
+            });
+        }
+        // The cache is released, the slow part happens on the copy.
+        write(keys, values, file);
+    }
+
+    /**
+     * Saves the cache every periodMillis on a daemon thread. A failed save is
+     * reported and retried at the next period.
+     */
+    public synchronized void startPeriodic(long periodMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lru-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the cache once more when the JVM shuts down normally.
+     */
+    public synchronized void saveOnShutdown() {
+        if (shutdownHook != null) {
+            return;
+        }
+        shutdownHook = new Thread(this::saveQuietly, "lru-cache-snapshot-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stops periodic saves and removes the shutdown hook. Does not save.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, the hook is running.
+            }
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Loads a snapshot into the cache, most recently used entry last.
+     *
+     * @param cache
+     * @param file
+     * @return number of entries read, 0 if there is no snapshot yet.
+     */
+    public static int load(LRUCache cache, Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedReader reader = new MappedReader(channel);
+            if (reader.readInt() != MAGIC) {
+                throw new IOException("not an LRUCache snapshot: " + file);
+            }
+            int version = reader.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported snapshot version " + version + ": " + file);
+            }
+
+            int count = reader.readInt();
+            byte[] keyBytes = new byte[64];
+            synchronized (cache) {
+                for (int i = 0; i < count; i++) {
+                    int keyLen = reader.readVarInt();
+                    if (keyLen > keyBytes.length) {
+                        keyBytes = new byte[Math.max(keyLen, keyBytes.length * 2)];
+                    }
+                    reader.readBytes(keyBytes, keyLen);
+                    int value = reader.readInt();
+                    cache.put(new String(keyBytes, 0, keyLen, StandardCharsets.UTF_8), value);
+                }
+            }
+            return count;
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            System.err.println("cache snapshot to " + file + " failed: " + e);
+        }
+    }
+
+    private static void write(String[] keys, int[] values, Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    byte[] key = keys[i].getBytes(StandardCharsets.UTF_8);
+                    writeVarInt(out, key.length);
+                    out.write(key);
+                    out.writeInt(values[i]);
+                }
+            }
+            // Readers see either the old snapshot or the new one, never half a file.
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Sequential reader over a file mapped one window at a time, so snapshots
+     * larger than 2GB can be read too.
+     */
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final long fileSize;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedReader(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            this.window = map(0, 0);
+        }
+
+        int readInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                ensure(1);
+                byte b = window.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("corrupt snapshot, bad key length");
+        }
+
+        void readBytes(byte[] dst, int length) throws IOException {
+            ensure(length);
+            window.get(dst, 0, length);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            windowStart += window.position();
+            window = map(windowStart, bytes);
+            if (window.remaining() < bytes) {
+                throw new EOFException("snapshot is truncated");
+            }
+        }
+
+        private MappedByteBuffer map(long position, int minBytes) throws IOException {
+            long length = Math.min(Math.max(MAP_WINDOW, minBytes), fileSize - position);
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(0, length));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("lru-snapshot");
+        Path file = dir.resolve("cache.snapshot");
+
+        LRUCache cache = new LRUCache(3);
+        cache.put("key1", 1);
+        cache.put("key2", 2);
+        cache.put("key3", 3);
+        cache.get("key1"); // recency is now key2, key3, key1
+
+        try (LRUCacheSnapshot snapshot = new LRUCacheSnapshot(cache, file)) {
+            snapshot.save();
+        }
+
+        LRUCache restored = new LRUCache(3);
+        System.out.println(LRUCacheSnapshot.load(restored, file)); // should be 3
+        restored.put("key4", 4); // evicts key2, the least recently used before the restart
+        System.out.println(restored.get("key2")); // should be -1
+        System.out.println(restored.get("key1")); // should be 1
+        System.out.println(restored.get("key3")); // should be 3
+
+        // A few million entries.
+        int count = 2_000_000;
+        LRUCache big = new LRUCache(count);
+        for (int i = 0; i < count; i++) {
+            big.put("user:" + i, i);
+        }
+        long start = System.nanoTime();
+        new LRUCacheSnapshot(big, file).save();
+        long saveMillis = (System.nanoTime() - start) / 1_000_000;
+
+        big = null;
+        LRUCache warm = new LRUCache(count);
+        start = System.nanoTime();
+        LRUCacheSnapshot.load(warm, file);
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println(count + " entries, " + Files.size(file) / (1 << 20) + "MB, saved in " + saveMillis
+                + "ms, loaded in " + loadMillis + "ms");
+        System.out.println(warm.get("user:1999999")); // should be 1999999
+
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
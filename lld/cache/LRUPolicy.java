@@ -0,0 +1,46 @@
+package lld.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Least recently used: every access moves the node to the front, the victim is
+ * taken from the back.
+ */
+public class LRUPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private final Cache.NodeList<K, V> list = new Cache.NodeList<>();
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        list.addFirst(node);
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        list.moveToFront(node);
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        list.remove(node);
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        Cache.Node<K, V> victim = list.last();
+        list.remove(victim);
+        return victim;
+    }
+
+    @Override
+    public String name() {
+        return "LRU";
+    }
+
+    // Visits the nodes from least to most recently used, without changing the order
+    void forEachLeastRecentFirst(Consumer<Cache.Node<K, V>> visitor) {
+        for (Cache.Node<K, V> node = list.last(); node != null; node = list.before(node)) {
+            visitor.accept(node);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package lld.cache;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache on top of ExpiringLRUCache.
+ *
+ * get(key, loader) returns the cached value, or loads it on a miss. Concurrent
+ * misses for the same key are coalesced: the first caller runs the loader and
+ * every other caller waits on the same in-flight future, so a hot key that was
+ * just evicted costs the origin one load instead of one per caller.
+ *
+ * With refresh-ahead enabled, a hit on an entry that is close to expiry still
+ * returns the cached value but also starts an asynchronous reload (coalesced
+ * the same way), so hot keys are replaced before they ever expire.
+ */
+public class LoadingLRUCache implements AutoCloseable {
+
+    /**
+     * Loads the value of a key from the backing store.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        int load(String key) throws Exception;
+    }
+
+    private final ExpiringLRUCache cache;
+    private final ConcurrentHashMap<String, CompletableFuture<Integer>> inFlight;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final Executor refreshExecutor;
+    private final LongSupplier clock;
+    private final StatsCounter stats;
+
+    /**
+     * Loading cache without refresh-ahead.
+     *
+     * @param capacity:  maximum number of entries.
+     * @param ttlMillis: time to live of loaded entries, 0 or less for no expiry.
+     */
+    public LoadingLRUCache(final int capacity, final long ttlMillis) {
+        this(capacity, ttlMillis, 0, ForkJoinPool.commonPool(), System::currentTimeMillis);
+    }
+
+    /**
+     * @param capacity:           maximum number of entries.
+     * @param ttlMillis:          time to live of loaded entries.
+     * @param refreshAheadMillis: a hit within this much of the expiry triggers an
+     *                            asynchronous reload, 0 disables refresh-ahead.
+     * @param refreshExecutor:    runs the asynchronous reloads.
+     * @param clock:              time source in milliseconds.
+     */
+    public LoadingLRUCache(final int capacity, final long ttlMillis, final long refreshAheadMillis,
+            final Executor refreshExecutor, final LongSupplier clock) {
+        this(capacity, ttlMillis, refreshAheadMillis, refreshExecutor, clock, StatsCounter.disabled());
+    }
+
+    /**
+     * Same as above, with hits, misses, evictions and load times recorded in stats.
+     */
+    public LoadingLRUCache(final int capacity, final long ttlMillis, final long refreshAheadMillis,
+            final Executor refreshExecutor, final LongSupplier clock, final StatsCounter stats) {
+        if (refreshAheadMillis > 0 && (ttlMillis <= 0 || refreshAheadMillis >= ttlMillis)) {
+            throw new IllegalArgumentException("refresh-ahead needs a ttl longer than the refresh window");
+        }
+
+        this.cache = new ExpiringLRUCache(capacity, clock, stats);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.ttlMillis = ttlMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+        this.stats = stats;
+    }
+
+    /**
+     * Gets the value of the key if it is cached, otherwise returns -1. Never
+     * loads.
+     *
+     * @param key
+     * @return
+     */
+    public int get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Gets the value of the key, loading it on a miss. If the loader fails, every
+     * caller waiting on that load gets the failure and nothing is cached.
+     *
+     * @param key
+     * @param loader
+     * @return
+     */
+    public int get(String key, Loader loader) {
+        // Presence is checked apart from the value, -1 is a value a loader may return.
+        Integer cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (refreshAheadMillis > 0) {
+                maybeRefresh(key, loader);
+            }
+            return cached;
+        }
+
+        CompletableFuture<Integer> load = new CompletableFuture<>();
+        CompletableFuture<Integer> existing = inFlight.putIfAbsent(key, load);
+        if (existing != null) {
+            return await(existing, key);
+        }
+
+        // This caller owns the load. Check again, a load may have finished in between.
+        cached = cache.peek(key);
+        if (cached == null) {
+            runLoad(key, loader, load);
+        } else {
+            inFlight.remove(key, load);
+            load.complete(cached);
+        }
+        return await(load, key);
+    }
+
+    /**
+     * Adds the key value pair to the cache with the configured ttl.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, int value) {
+        cache.put(key, value, ttlMillis);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Snapshot of the cache statistics, all zero unless a StatsCounter was passed in.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    private void maybeRefresh(String key, Loader loader) {
+        long expiresAt = cache.expiresAt(key);
+        if (expiresAt == -1 || expiresAt - clock.getAsLong() > refreshAheadMillis) {
+            return;
+        }
+
+        CompletableFuture<Integer> refresh = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, refresh) == null) {
+            refreshExecutor.execute(() -> runLoad(key, loader, refresh));
+        }
+    }
+
+    /**
+     * Runs the loader, publishes the value and releases the in-flight slot. The
+     * value is cached before the slot is released, so a caller arriving right
+     * after never starts a second load.
+     */
+    private void runLoad(String key, Loader loader, CompletableFuture<Integer> load) {
+        long start = System.nanoTime();
+        try {
+            int value = loader.load(key);
+            stats.recordLoadSuccess(System.nanoTime() - start);
+            cache.put(key, value, ttlMillis);
+            inFlight.remove(key, load);
+            load.complete(value);
+        } catch (Throwable t) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            inFlight.remove(key, load);
+            load.completeExceptionally(t);
+        }
+    }
+
+    private static int await(CompletableFuture<Integer> load, String key) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("failed to load key " + key, cause);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        AtomicInteger originLoads = new AtomicInteger();
+        Loader slowOrigin = key -> {
+            originLoads.incrementAndGet();
+            Thread.sleep(200);
+            return key.length();
+        };
+
+        // 32 threads miss on the same hot key at once.
+        try (LoadingLRUCache cache = new LoadingLRUCache(100, 60_000, 0, ForkJoinPool.commonPool(),
+                System::currentTimeMillis, new ConcurrentStatsCounter())) {
+            int threadCount = 32;
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                        cache.get("hot:key", slowOrigin);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads[i].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("origin loads for 32 concurrent misses: " + originLoads.get()); // should be 1
+            System.out.println(cache.stats());
+        }
+
+        // Refresh-ahead: ttl 1s, reload on hits in the last 300ms.
+        long[] now = { 0 };
+        originLoads.set(0);
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        try (LoadingLRUCache cache = new LoadingLRUCache(100, 1_000, 300, refresher, () -> now[0])) {
+            System.out.println(cache.get("user:1", slowOrigin)); // 6, loaded
+            now[0] = 800;
+            System.out.println(cache.get("user:1", slowOrigin)); // 6, served from cache, reload started
+            refresher.submit(() -> {
+            }).get(); // wait for the reload
+            now[0] = 1_500;
+            System.out.println(cache.get("user:1")); // 6, still cached thanks to the reload
+            System.out.println("origin loads: " + originLoads.get()); // should be 2
+        } finally {
+            refresher.shutdown();
+        }
+
+        // A loaded -1 is a value like any other, cached rather than reloaded.
+        originLoads.set(0);
+        try (LoadingLRUCache cache = new LoadingLRUCache(100, 60_000)) {
+            Loader notFound = key -> {
+                originLoads.incrementAndGet();
+                return -1;
+            };
+            cache.get("user:404", notFound);
+            cache.get("user:404", notFound);
+            System.out.println("origin loads for -1: " + originLoads.get()); // should be 1
+        }
+    }
+}
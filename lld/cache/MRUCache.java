@@ -1,45 +1,20 @@
 package lld.cache;
 
-import java.util.*;
-
 /**
- * Class to implement Cache with MRU (Most Recently Used) eviction policy.
+ * Class to implement Cache with MRU (Most Recently Used) eviction policy. A
+ * thin facade over Cache with an MRUPolicy, which owns the map and the list.
  */
 public class MRUCache {
 
-    // Capacity of the cache.
-    private final int capacity;
-
-    /**
-     * Static class for a cache node.
-     */
-    private static class CacheNode {
-        private String key;
-        private String value;
-        private CacheNode prev;
-        private CacheNode next;
-
-        CacheNode(final String key, final String value) {
-            this.key = key;
-            this.value = value;
-            this.prev = null;
-            this.next = null;
-        }
-    }
-
-    private final Map<String, CacheNode> store;
-    private final CacheNode head;
-    private final CacheNode tail;
+    // Map and recency list, with the victim taken from the front.
+    private final Cache<String, String> cache;
 
     MRUCache(final int capacity) {
+        this(capacity, StatsCounter.disabled());
+    }
 
-        this.capacity = capacity;
-        this.store = new HashMap<>();
-
-        head = new CacheNode(null, null);
-        tail = new CacheNode(null, null);
-        head.next = tail;
-        tail.prev = head;
+    MRUCache(final int capacity, final StatsCounter stats) {
+        this.cache = new Cache<>(capacity, new MRUPolicy<>(), stats);
     }
 
     /**
@@ -48,27 +23,8 @@ public class MRUCache {
      * @param key
      * @param value
      */
-    private void put(String key, String value) {
-
-        CacheNode newNode = new CacheNode(key, value);
-
-        if (store.containsKey(key)) {
-            // if store already contains the key, update the node value and it's position in
-            // the DLL.
-            CacheNode node = store.get(key);
-            node.value = value;
-            deleteNode(node); // delete node from current position.
-            addNode(node); // add node to front.
-            return;
-        } else if (store.size() == capacity) {
-            CacheNode nodeToRemove = head.next;
-            deleteNode(nodeToRemove); // evict the node from front as it is most recently used.
-            store.remove(nodeToRemove.key);
-        }
-
-        addNode(newNode); // then add node to start (after head).
-        store.put(key, newNode);
-
+    void put(String key, String value) {
+        cache.put(key, value);
     }
 
     /**
@@ -77,50 +33,18 @@ public class MRUCache {
      * @param key
      * @return
      */
-    private String get(String key) {
-
-        if (store.containsKey(key)) {
-            CacheNode node = store.get(key);
-
-            // Have to put this node in front of the DLL.
-            deleteNode(node);
-            addNode(node);
-
-            return node.value;
-        }
-
-        return "";
+    String get(String key) {
+        String value = cache.get(key);
+        return value == null ? "" : value;
     }
 
     /**
-     * Helper function to add a node at the front of the doubly linked list.
+     * Snapshot of the cache statistics, all zero unless a StatsCounter was passed in.
      * 
-     * @param node: cache node to be added.
-     */
-    private void addNode(CacheNode node) {
-
-        CacheNode temp = head.next;
-
-        head.next = node;
-        node.prev = head;
-
-        node.next = temp;
-        temp.prev = node;
-    }
-
-    /**
-     * Helper function to delete a node from doubly linked list.
-     * 
-     * @param node: cache node to be deleted.
+     * @return
      */
-    private void deleteNode(CacheNode node) {
-
-        CacheNode nodeNext = node.next;
-        CacheNode nodePrev = node.prev;
-
-        nodePrev.next = nodeNext;
-        nodeNext.prev = nodePrev;
-
+    CacheStats stats() {
+        return cache.stats();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,37 @@
+package lld.cache;
+
+/**
+ * Most recently used: every access moves the node to the front and the victim
+ * is taken from the front as well.
+ */
+public class MRUPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private final Cache.NodeList<K, V> list = new Cache.NodeList<>();
+
+    @Override
+    public void onInsert(Cache.Node<K, V> node) {
+        list.addFirst(node);
+    }
+
+    @Override
+    public void onAccess(Cache.Node<K, V> node) {
+        list.moveToFront(node);
+    }
+
+    @Override
+    public void onRemove(Cache.Node<K, V> node) {
+        list.remove(node);
+    }
+
+    @Override
+    public Cache.Node<K, V> evict(K incomingKey) {
+        Cache.Node<K, V> victim = list.first();
+        list.remove(victim);
+        return victim;
+    }
+
+    @Override
+    public String name() {
+        return "MRU";
+    }
+}
@@ -0,0 +1,406 @@
+package lld.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LRU cache that keeps entries and the recency list outside the Java heap.
+ *
+ * Memory is split into fixed size slots carved out of 1GB slabs, either direct
+ * ByteBuffers or regions of a memory mapped scratch file. Each slot holds:
+ *
+ * [prev int][next int][keyLen int][valueLen int][key bytes][value bytes]
+ *
+ * so the doubly linked recency list is off heap as well. The only heap state is
+ * an open addressing table of slot ids plus one int hash per slot. Eviction is
+ * LRU bounded by the entry capacity and, optionally, by a byte budget on the
+ * off heap memory. Every entry reserves a whole slot whatever its size, so the
+ * budget is charged slotSize per entry and caps the slots, and the slabs, ever
+ * allocated.
+ */
+public class OffHeapLRUCache implements Closeable {
+
+    private static final int NIL = -1;
+    private static final int PREV = 0;
+    private static final int NEXT = 4;
+    private static final int KEY_LEN = 8;
+    private static final int VALUE_LEN = 12;
+    private static final int HEADER = 16;
+    private static final long MAX_SLAB_BYTES = 1L << 30;
+
+    private final int capacity;
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final ByteBuffer[] slabs;
+    private final FileChannel channel;
+
+    // Heap side index: slot id + 1 per table position, and the hash of every slot.
+    private final int[] table;
+    private final int mask;
+    private final int[] hashes;
+
+    private int head = NIL; // most recently used
+    private int tail = NIL; // least recently used
+    private int freeHead = NIL; // slots released by evictions, linked via NEXT
+    private int allocated;
+    private int size;
+    private long usedBytes;
+
+    /**
+     * Off heap cache on direct ByteBuffers with no byte budget.
+     *
+     * @param capacity: maximum number of entries.
+     * @param slotSize: bytes reserved per entry, header included.
+     */
+    public OffHeapLRUCache(final int capacity, final int slotSize) {
+        this(capacity, slotSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Off heap cache on direct ByteBuffers.
+     *
+     * @param capacity: maximum number of entries.
+     * @param slotSize: bytes reserved per entry, header included.
+     * @param maxBytes: budget for the off heap memory, slotSize per entry.
+     */
+    public OffHeapLRUCache(final int capacity, final int slotSize, final long maxBytes) {
+        this(capacity, slotSize, maxBytes, null);
+    }
+
+    private OffHeapLRUCache(final int capacity, final int slotSize, final long maxBytes, final FileChannel channel) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (slotSize <= HEADER || slotSize > MAX_SLAB_BYTES) {
+            throw new IllegalArgumentException("slotSize must be between " + (HEADER + 1) + " and " + MAX_SLAB_BYTES);
+        }
+        if (maxBytes < slotSize) {
+            throw new IllegalArgumentException("byte budget of " + maxBytes + " does not fit one slot");
+        }
+
+        // The byte budget is a number of slots.
+        this.capacity = (int) Math.min(capacity, maxBytes / slotSize);
+        this.slotSize = slotSize;
+        this.channel = channel;
+        this.slotsPerSlab = (int) Math.min(this.capacity, MAX_SLAB_BYTES / slotSize);
+        this.slabs = new ByteBuffer[(this.capacity + slotsPerSlab - 1) / slotsPerSlab];
+
+        int tableSize = Integer.highestOneBit(Math.max(2, this.capacity * 2 - 1)) << 1;
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.hashes = new int[this.capacity];
+    }
+
+    /**
+     * Off heap cache backed by a memory mapped scratch file. The file is only
+     * used as backing memory, it is not a persistent format.
+     */
+    public static OffHeapLRUCache mapped(Path file, int capacity, int slotSize, long maxBytes) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new OffHeapLRUCache(capacity, slotSize, maxBytes, channel);
+    }
+
+    /**
+     * Adds the key value pair to the cache.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int entryBytes = keyBytes.length + valueBytes.length;
+        if (HEADER + entryBytes > slotSize) {
+            throw new IllegalArgumentException("entry of " + entryBytes + " bytes does not fit in a slot");
+        }
+
+        int hash = spread(key.hashCode());
+        int tableSlot = findSlot(keyBytes, hash);
+
+        if (table[tableSlot] != 0) {
+            // Overwrite in place, the key bytes are already there.
+            int slot = table[tableSlot] - 1;
+            ByteBuffer slab = slab(slot);
+            int offset = offset(slot);
+            usedBytes += valueBytes.length - slab.getInt(offset + VALUE_LEN);
+            slab.putInt(offset + VALUE_LEN, valueBytes.length);
+            slab.put(offset + HEADER + keyBytes.length, valueBytes);
+            moveToFront(slot);
+            return;
+        }
+
+        if (size == capacity) {
+            evict();
+            // Eviction shifts the index around, so look the slot up again.
+            tableSlot = findSlot(keyBytes, hash);
+        }
+
+        int slot = allocateSlot();
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        slab.putInt(offset + KEY_LEN, keyBytes.length);
+        slab.putInt(offset + VALUE_LEN, valueBytes.length);
+        slab.put(offset + HEADER, keyBytes);
+        slab.put(offset + HEADER + keyBytes.length, valueBytes);
+
+        hashes[slot] = hash;
+        table[tableSlot] = slot + 1;
+        linkFront(slot);
+        size++;
+        usedBytes += entryBytes;
+    }
+
+    /**
+     * Gets the value of the key if it exists. otherwise return empty string.
+     *
+     * @param key
+     * @return
+     */
+    public String get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int tableSlot = findSlot(keyBytes, spread(key.hashCode()));
+        if (table[tableSlot] == 0) {
+            return "";
+        }
+
+        int slot = table[tableSlot] - 1;
+        moveToFront(slot);
+
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        byte[] valueBytes = new byte[slab.getInt(offset + VALUE_LEN)];
+        slab.get(offset + HEADER + slab.getInt(offset + KEY_LEN), valueBytes);
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of keys and values currently stored.
+     */
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return off heap bytes held by the entries, slotSize each, at most the
+     *         byte budget.
+     */
+    public long reservedBytes() {
+        return (long) size * slotSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void evict() {
+        int slot = tail;
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        int keyLen = slab.getInt(offset + KEY_LEN);
+        byte[] keyBytes = new byte[keyLen];
+        slab.get(offset + HEADER, keyBytes);
+
+        deleteSlot(findSlot(keyBytes, hashes[slot]));
+        unlink(slot);
+        usedBytes -= keyLen + slab.getInt(offset + VALUE_LEN);
+        size--;
+
+        slab.putInt(offset + NEXT, freeHead);
+        freeHead = slot;
+    }
+
+    private int allocateSlot() {
+        if (freeHead != NIL) {
+            int slot = freeHead;
+            freeHead = slab(slot).getInt(offset(slot) + NEXT);
+            return slot;
+        }
+        return allocated++;
+    }
+
+    private int findSlot(byte[] keyBytes, int hash) {
+        int tableSlot = hash & mask;
+        while (true) {
+            int stored = table[tableSlot];
+            if (stored == 0) {
+                return tableSlot;
+            }
+            int slot = stored - 1;
+            if (hashes[slot] == hash && keyEquals(slot, keyBytes)) {
+                return tableSlot;
+            }
+            tableSlot = (tableSlot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int slot, byte[] keyBytes) {
+        ByteBuffer slab = slab(slot);
+        int offset = offset(slot);
+        if (slab.getInt(offset + KEY_LEN) != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (slab.get(offset + HEADER + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe chains intact without tombstones.
+     */
+    private void deleteSlot(int tableSlot) {
+        int hole = tableSlot;
+        int probe = tableSlot;
+        while (true) {
+            probe = (probe + 1) & mask;
+            int stored = table[probe];
+            if (stored == 0) {
+                break;
+            }
+            int home = hashes[stored - 1] & mask;
+            if (((probe - home) & mask) >= ((probe - hole) & mask)) {
+                table[hole] = stored;
+                hole = probe;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void moveToFront(int slot) {
+        if (slot != head) {
+            unlink(slot);
+            linkFront(slot);
+        }
+    }
+
+    private void linkFront(int slot) {
+        setPrev(slot, NIL);
+        setNext(slot, head);
+        if (head != NIL) {
+            setPrev(head, slot);
+        }
+        head = slot;
+        if (tail == NIL) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int p = getPrev(slot);
+        int n = getNext(slot);
+
+        if (p != NIL) {
+            setNext(p, n);
+        } else {
+            head = n;
+        }
+
+        if (n != NIL) {
+            setPrev(n, p);
+        } else {
+            tail = p;
+        }
+    }
+
+    private int getPrev(int slot) {
+        return slab(slot).getInt(offset(slot) + PREV);
+    }
+
+    private int getNext(int slot) {
+        return slab(slot).getInt(offset(slot) + NEXT);
+    }
+
+    private void setPrev(int slot, int value) {
+        slab(slot).putInt(offset(slot) + PREV, value);
+    }
+
+    private void setNext(int slot, int value) {
+        slab(slot).putInt(offset(slot) + NEXT, value);
+    }
+
+    private int offset(int slot) {
+        return (slot % slotsPerSlab) * slotSize;
+    }
+
+    /**
+     * Slabs are allocated (or mapped) lazily, so a large capacity only costs
+     * memory once it is used. The last slab only holds the slots left, so the
+     * slabs never add up to more than capacity slots.
+     */
+    private ByteBuffer slab(int slot) {
+        int index = slot / slotsPerSlab;
+        ByteBuffer slab = slabs[index];
+        if (slab == null) {
+            int slots = Math.min(slotsPerSlab, capacity - index * slotsPerSlab);
+            int bytes = slots * slotSize;
+            if (channel == null) {
+                slab = ByteBuffer.allocateDirect(bytes);
+            } else {
+                try {
+                    long position = (long) index * slotsPerSlab * slotSize;
+                    slab = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+                } catch (IOException e) {
+                    throw new IllegalStateException("failed to map slab " + index, e);
+                }
+            }
+            slabs[index] = slab;
+        }
+        return slab;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OffHeapLRUCache cache = new OffHeapLRUCache(3, 64);
+
+        cache.put("product:001", "iPhone");
+        cache.put("product:002", "Pixel");
+        cache.put("product:003", "Galaxy");
+
+        System.out.println("Get 'product:001': " + cache.get("product:001")); // iPhone
+        cache.put("product:004", "OnePlus"); // evicts product:002
+
+        System.out.println("Get 'product:002': " + cache.get("product:002")); // Should be "" (evicted)
+        System.out.println("Get 'product:004': " + cache.get("product:004")); // OnePlus
+
+        // Byte budget: 160 bytes of off heap memory is two 64 byte slots, whatever the entries hold.
+        OffHeapLRUCache budgeted = new OffHeapLRUCache(100, 64, 160);
+        budgeted.put("product:001", "iPhone");
+        budgeted.put("product:002", "Pixel1");
+        budgeted.put("product:003", "Galaxy"); // evicts product:001 to stay in budget
+        System.out.println("Get 'product:001': " + budgeted.get("product:001")); // Should be ""
+        System.out.println("Size " + budgeted.size() + ", bytes " + budgeted.usedBytes() + ", reserved "
+                + budgeted.reservedBytes()); // 2, 34, 128
+
+        // Memory mapped backing, heap use stays flat while the cache grows.
+        Path file = Files.createTempFile("offheap-lru", ".bin");
+        try (OffHeapLRUCache mapped = OffHeapLRUCache.mapped(file, 1_000_000, 64, Long.MAX_VALUE)) {
+            for (int i = 0; i < 2_000_000; i++) {
+                mapped.put("key" + i, "value" + i);
+            }
+            System.out.println("Get 'key1999999': " + mapped.get("key1999999")); // value1999999
+            System.out.println("Get 'key0': " + mapped.get("key0")); // Should be ""
+            System.out.println("Size " + mapped.size()); // 1000000
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
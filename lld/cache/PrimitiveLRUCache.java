@@ -0,0 +1,209 @@
+package lld.cache;
+
+/**
+ * LRU cache with the same contract as LRUCache, but with no per entry objects.
+ *
+ * Entries live in parallel arrays indexed by an entry id (keys, hashes, int
+ * values and prev/next links of the recency list). An open addressing table
+ * with linear probing maps a key to its entry id. All arrays are sized up front
+ * from the capacity and evicted entry ids are reused for new keys, so once the
+ * cache is full put/get allocate nothing.
+ */
+public class PrimitiveLRUCache {
+
+    private static final int NIL = -1;
+
+    private final int capacity;
+
+    // Entry storage, indexed by entry id.
+    private final String[] keys;
+    private final int[] hashes;
+    private final int[] values;
+    private final int[] prev;
+    private final int[] next;
+
+    // Hash table of entry id + 1, 0 marks an empty slot.
+    private final int[] table;
+    private final int mask;
+
+    private int head = NIL; // most recently used
+    private int tail = NIL; // least recently used
+    private int size;
+
+    public PrimitiveLRUCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.hashes = new int[capacity];
+        this.values = new int[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+
+        // Keep the load factor at or below 0.5 so probe chains stay short.
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+    }
+
+    /**
+     * Adds the key value pair to the cache. Overwrites reuse the existing entry.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, int value) {
+        int hash = spread(key.hashCode());
+        int slot = findSlot(key, hash);
+
+        if (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            values[entry] = value;
+            moveToFront(entry);
+            return;
+        }
+
+        int entry;
+        if (size == capacity) {
+            // Reuse the least recently used entry id.
+            entry = tail;
+            unlink(entry);
+            deleteSlot(findSlot(keys[entry], hashes[entry]));
+            // Deletion shifts entries around, so look the slot up again.
+            slot = findSlot(key, hash);
+        } else {
+            entry = size++;
+        }
+
+        keys[entry] = key;
+        hashes[entry] = hash;
+        values[entry] = value;
+        table[slot] = entry + 1;
+        linkFront(entry);
+    }
+
+    /**
+     * Gets the value of the key if it exists, otherwise returns -1.
+     *
+     * @param key
+     * @return
+     */
+    public int get(String key) {
+        int slot = findSlot(key, spread(key.hashCode()));
+        if (table[slot] == 0) {
+            return -1;
+        }
+
+        int entry = table[slot] - 1;
+        moveToFront(entry);
+        return values[entry];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would go.
+     */
+    private int findSlot(String key, int hash) {
+        int slot = hash & mask;
+        while (true) {
+            int stored = table[slot];
+            if (stored == 0) {
+                return slot;
+            }
+            int entry = stored - 1;
+            if (hashes[entry] == hash && keys[entry].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Backward shift deletion, keeps probe chains intact without tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int probe = slot;
+        while (true) {
+            probe = (probe + 1) & mask;
+            int stored = table[probe];
+            if (stored == 0) {
+                break;
+            }
+            int home = hashes[stored - 1] & mask;
+            // Move the entry into the hole unless its home lies between the hole and the probe.
+            if (((probe - home) & mask) >= ((probe - hole) & mask)) {
+                table[hole] = stored;
+                hole = probe;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void moveToFront(int entry) {
+        if (entry != head) {
+            unlink(entry);
+            linkFront(entry);
+        }
+    }
+
+    private void linkFront(int entry) {
+        prev[entry] = NIL;
+        next[entry] = head;
+        if (head != NIL) {
+            prev[head] = entry;
+        }
+        head = entry;
+        if (tail == NIL) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(int entry) {
+        int p = prev[entry];
+        int n = next[entry];
+
+        if (p != NIL) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+
+        if (n != NIL) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public static void main(String[] args) {
+        PrimitiveLRUCache lruCache = new PrimitiveLRUCache(3);
+
+        lruCache.put("key1", 1);
+        lruCache.put("key2", 2);
+
+        System.out.println(lruCache.get("key1")); // should be 1
+        System.out.println(lruCache.get("key2")); // should be 2
+
+        lruCache.put("key3", 3);
+        lruCache.put("key4", 4);
+
+        System.out.println(lruCache.get("key1")); // should be -1
+        System.out.println(lruCache.get("key3")); // should be 3
+
+        lruCache.put("key2", 8);
+        System.out.println(lruCache.get("key2")); // should be 8
+        lruCache.put("key5", 5);
+        System.out.println(lruCache.get("key4")); // should be -1
+        System.out.println(lruCache.get("key5")); // should be 5
+    }
+}
@@ -0,0 +1,241 @@
+package lld.cache;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache where hits do not touch the recency list directly.
+ *
+ * A hit is a plain ConcurrentHashMap lookup plus a record of the node in a small
+ * lossy ring buffer owned by the calling thread (buffers are striped by thread
+ * id). The buffered hits are replayed against the doubly linked list in one
+ * batch, either when a buffer fills up or on the next write. If a buffer is full
+ * and another thread is already draining, the hit is simply dropped: recency
+ * becomes approximate, but reads never wait.
+ */
+public class ReadBufferedLRUCache {
+
+    /**
+     * Static class for a cache node. prev/next/alive are only touched while
+     * holding the eviction lock.
+     */
+    private static class CacheNode {
+        private final String key;
+        private volatile int value;
+        private CacheNode prev;
+        private CacheNode next;
+        private boolean alive;
+
+        CacheNode(final String key, final int value) {
+            this.key = key;
+            this.value = value;
+            this.alive = true;
+        }
+    }
+
+    /**
+     * Bounded, lossy, multi producer / single consumer ring buffer of hits.
+     */
+    private static class ReadBuffer {
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<CacheNode> buffer = new AtomicReferenceArray<>(SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        // Only written by the thread holding the eviction lock.
+        private volatile long readCounter;
+
+        /**
+         * @return false if the buffer is full and should be drained.
+         */
+        boolean offer(CacheNode node) {
+            long tail = writeCounter.get();
+            if (tail - readCounter >= SIZE) {
+                return false;
+            }
+
+            // Losing the race to another reader just drops this hit.
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & MASK), node);
+            }
+            return true;
+        }
+
+        void drainTo(ReadBufferedLRUCache cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+
+            for (; head != tail; head++) {
+                int index = (int) (head & MASK);
+                CacheNode node = buffer.get(index);
+                if (node == null) {
+                    // Slot claimed but not yet published, pick it up on the next drain.
+                    break;
+                }
+                buffer.lazySet(index, null);
+                cache.onAccess(node);
+            }
+
+            readCounter = head;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, CacheNode> store;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers;
+    private final int bufferMask;
+    private final CacheNode head;
+    private final CacheNode tail;
+    private int size;
+
+    public ReadBufferedLRUCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.store = new ConcurrentHashMap<>();
+
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.bufferMask = stripes - 1;
+
+        head = new CacheNode(null, -1);
+        tail = new CacheNode(null, -1);
+        head.next = tail;
+        tail.prev = head;
+    }
+
+    /**
+     * Adds the key value pair to the cache. Pending hits are replayed first so
+     * the eviction victim reflects them.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, int value) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+
+            CacheNode node = store.get(key);
+            if (node != null) {
+                node.value = value;
+                deleteNode(node);
+                addNode(node);
+                return;
+            }
+
+            if (size == capacity) {
+                CacheNode nodeToRemove = tail.prev;
+                deleteNode(nodeToRemove);
+                nodeToRemove.alive = false;
+                store.remove(nodeToRemove.key);
+                size--;
+            }
+
+            node = new CacheNode(key, value);
+            addNode(node);
+            store.put(key, node);
+            size++;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the value of the key if it exists, otherwise returns -1. Never blocks.
+     *
+     * @param key
+     * @return
+     */
+    public int get(String key) {
+        CacheNode node = store.get(key);
+        if (node == null) {
+            return -1;
+        }
+
+        int value = node.value;
+        recordHit(node);
+        return value;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    private void recordHit(CacheNode node) {
+        ReadBuffer buffer = readBuffers[threadIndex()];
+        if (!buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private int threadIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 16) & bufferMask;
+    }
+
+    // Must hold the eviction lock.
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    // Must hold the eviction lock. Nodes evicted since they were buffered are skipped.
+    private void onAccess(CacheNode node) {
+        if (node.alive) {
+            deleteNode(node);
+            addNode(node);
+        }
+    }
+
+    private void addNode(CacheNode node) {
+        CacheNode temp = head.next;
+
+        node.next = temp;
+        node.prev = head;
+
+        temp.prev = node;
+        head.next = node;
+    }
+
+    private void deleteNode(CacheNode node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    public static void main(String[] args) {
+        ReadBufferedLRUCache lruCache = new ReadBufferedLRUCache(3);
+
+        lruCache.put("key1", 1);
+        lruCache.put("key2", 2);
+
+        System.out.println(lruCache.get("key1")); // should be 1
+        System.out.println(lruCache.get("key2")); // should be 2
+
+        // Buffered hits are replayed on this put, key1 is still the LRU entry.
+        lruCache.put("key3", 3);
+        lruCache.put("key4", 4);
+
+        System.out.println(lruCache.get("key1")); // should be -1
+        System.out.println(lruCache.get("key3")); // should be 3
+
+        lruCache.put("key5", 5); // evicts key2
+        System.out.println(lruCache.get("key2")); // should be -1
+        System.out.println(lruCache.get("key4")); // should be 4
+        System.out.println(lruCache.get("key5")); // should be 5
+    }
+}
@@ -0,0 +1,91 @@
+package lld.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compares hit throughput of immediate-reorder LRUCache against the read
+ * buffered variant. All keys are preloaded, so every get is a hit.
+ *
+ * LRUCache is not thread safe, so in the multi threaded runs it is wrapped in a
+ * single monitor, which is what sharing it across threads would require today.
+ */
+public class ReadBufferedLRUCacheBenchmark {
+
+    private static final int KEY_COUNT = 10_000;
+    private static final int OPS_PER_THREAD = 2_000_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "key" + i;
+        }
+
+        LRUCache lruCache = new LRUCache(KEY_COUNT);
+        ReadBufferedLRUCache bufferedCache = new ReadBufferedLRUCache(KEY_COUNT);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            lruCache.put(keys[i], i);
+            bufferedCache.put(keys[i], i);
+        }
+
+        int maxThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+        // Warm up both paths before measuring.
+        run(keys, lruCache::get, 1);
+        run(keys, bufferedCache::get, 1);
+
+        System.out.printf("%-28s %8s %16s%n", "cache", "threads", "hits/sec");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ToIntFunction<String> lockedLru = key -> {
+                synchronized (lruCache) {
+                    return lruCache.get(key);
+                }
+            };
+            report(threads == 1 ? "LRUCache" : "LRUCache (synchronized)", threads,
+                    run(keys, threads == 1 ? lruCache::get : lockedLru, threads));
+            report("ReadBufferedLRUCache", threads, run(keys, bufferedCache::get, threads));
+        }
+    }
+
+    private static double run(String[] keys, ToIntFunction<String> get, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] sinks = new long[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                // Cheap xorshift so key selection doesn't dominate the measurement.
+                int x = 0x9E3779B9 * (id + 1);
+                long sink = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    x ^= x << 13;
+                    x ^= x >>> 17;
+                    x ^= x << 5;
+                    sink += get.applyAsInt(keys[(x & 0x7fffffff) % keys.length]);
+                }
+                sinks[id] = sink;
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        return (double) OPS_PER_THREAD * threads * 1_000_000_000L / elapsed;
+    }
+
+    private static void report(String name, int threads, double opsPerSec) {
+        System.out.printf("%-28s %8d %,16.0f%n", name, threads, opsPerSec);
+    }
+}
@@ -0,0 +1,92 @@
+package lld.cache;
+
+/**
+ * Records what a cache does. Caches default to disabled(), whose methods are
+ * empty and whose startTimer never reads the clock, so a cache without stats
+ * pays nothing beyond an inlined no-op call.
+ */
+public interface StatsCounter {
+
+    void recordHits(int count);
+
+    void recordMisses(int count);
+
+    void recordEviction();
+
+    void recordLoadSuccess(long loadTimeNanos);
+
+    void recordLoadFailure(long loadTimeNanos);
+
+    /**
+     * @return a start timestamp if this operation is sampled for the latency
+     *         histogram, 0 otherwise.
+     */
+    long startTimer();
+
+    /**
+     * @param start: value returned by startTimer, ignored if 0.
+     */
+    void recordGetLatency(long start);
+
+    /**
+     * @param start: value returned by startTimer, ignored if 0.
+     */
+    void recordPutLatency(long start);
+
+    /**
+     * @param size: current number of entries in the cache.
+     */
+    CacheStats snapshot(long size);
+
+    static StatsCounter disabled() {
+        return DisabledStatsCounter.INSTANCE;
+    }
+
+    /**
+     * Stats turned off.
+     */
+    final class DisabledStatsCounter implements StatsCounter {
+        private static final DisabledStatsCounter INSTANCE = new DisabledStatsCounter();
+
+        private DisabledStatsCounter() {
+        }
+
+        @Override
+        public void recordHits(int count) {
+        }
+
+        @Override
+        public void recordMisses(int count) {
+        }
+
+        @Override
+        public void recordEviction() {
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadTimeNanos) {
+        }
+
+        @Override
+        public void recordLoadFailure(long loadTimeNanos) {
+        }
+
+        @Override
+        public long startTimer() {
+            return 0;
+        }
+
+        @Override
+        public void recordGetLatency(long start) {
+        }
+
+        @Override
+        public void recordPutLatency(long start) {
+        }
+
+        @Override
+        public CacheStats snapshot(long size) {
+            return CacheStats.empty(size);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package lld.cache;
+
+import java.util.*;
+
+/**
+ * Scan resistant cache with W-TinyLFU admission.
+ *
+ * New keys land in a small LRU admission window (1% of the capacity). The rest
+ * of the capacity is a segmented LRU main region: a probation segment for keys
+ * on trial and a protected segment (80% of main) for keys hit again while on
+ * probation. When the window overflows, its LRU entry only gets into the main
+ * region if a count-min sketch estimates it to be more frequently used than the
+ * main region's eviction victim, so a one-off scan of cold keys can't push out
+ * the hot set.
+ */
+public class TinyLFUCache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * Static class for a cache node.
+     */
+    private static class CacheNode {
+        private final String key;
+        private int value;
+        private int queue;
+        private CacheNode prev;
+        private CacheNode next;
+
+        CacheNode(final String key, final int value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Sentinel based doubly linked list, front is most recently used.
+     */
+    private static class AccessQueue {
+        private final CacheNode head = new CacheNode(null, -1);
+        private final CacheNode tail = new CacheNode(null, -1);
+        private int size;
+
+        AccessQueue() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void addFirst(CacheNode node) {
+            CacheNode temp = head.next;
+
+            node.next = temp;
+            node.prev = head;
+
+            temp.prev = node;
+            head.next = node;
+            size++;
+        }
+
+        void remove(CacheNode node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            size--;
+        }
+
+        void moveToFront(CacheNode node) {
+            remove(node);
+            addFirst(node);
+        }
+
+        CacheNode last() {
+            return tail.prev == head ? null : tail.prev;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, 16 counters packed per long. Every
+     * counter is halved once the number of increments reaches the sample size,
+     * so keys that stop being accessed lose their popularity over time.
+     */
+    static class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final int capacity) {
+            int width = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.table = new long[width];
+            this.tableMask = width - 1;
+            this.sampleSize = 10 * Math.max(1, capacity);
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+
+            if (added && ++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int shift = counter << 2;
+            long mask = 0xfL << shift;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << shift;
+                return true;
+            }
+            return false;
+        }
+
+        // Aging: halve every counter.
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+
+    private final int capacity;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final Map<String, CacheNode> store;
+    private final FrequencySketch sketch;
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+
+    public TinyLFUCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (int) (mainCapacity * 0.8);
+        this.store = new HashMap<>();
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * Adds the key value pair to the cache. A new key always enters the window,
+     * it competes for the main region once it falls out of the window. Writes
+     * are accesses too and are recorded in the frequency sketch, so keys that
+     * are only ever put still build up the frequency admission compares.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, int value) {
+        sketch.increment(key);
+
+        CacheNode node = store.get(key);
+        if (node != null) {
+            node.value = value;
+            onHit(node);
+            return;
+        }
+
+        node = new CacheNode(key, value);
+        node.queue = WINDOW;
+        window.addFirst(node);
+        store.put(key, node);
+
+        if (window.size > windowCapacity) {
+            evictFromWindow();
+        }
+    }
+
+    /**
+     * Gets the value of the key if it exists, otherwise returns -1. Both hits
+     * and misses are recorded in the frequency sketch.
+     *
+     * @param key
+     * @return
+     */
+    public int get(String key) {
+        sketch.increment(key);
+
+        CacheNode node = store.get(key);
+        if (node == null) {
+            return -1;
+        }
+
+        onHit(node);
+        return node.value;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    private void onHit(CacheNode node) {
+        if (node.queue == WINDOW) {
+            window.moveToFront(node);
+        } else if (node.queue == PROTECTED) {
+            protectedQueue.moveToFront(node);
+        } else {
+            // Second hit while on probation earns a protected spot.
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.addFirst(node);
+
+            if (protectedQueue.size > protectedCapacity) {
+                CacheNode demoted = protectedQueue.last();
+                protectedQueue.remove(demoted);
+                demoted.queue = PROBATION;
+                probation.addFirst(demoted);
+            }
+        }
+    }
+
+    private void evictFromWindow() {
+        CacheNode candidate = window.last();
+        window.remove(candidate);
+
+        if (probation.size + protectedQueue.size < mainCapacity) {
+            candidate.queue = PROBATION;
+            probation.addFirst(candidate);
+            return;
+        }
+
+        CacheNode victim = probation.last() != null ? probation.last() : protectedQueue.last();
+        if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+            // Not hotter than what it would replace, reject it.
+            store.remove(candidate.key);
+            return;
+        }
+
+        if (victim.queue == PROBATION) {
+            probation.remove(victim);
+        } else {
+            protectedQueue.remove(victim);
+        }
+        store.remove(victim.key);
+
+        candidate.queue = PROBATION;
+        probation.addFirst(candidate);
+    }
+
+    public static void main(String[] args) {
+        TinyLFUCache cache = new TinyLFUCache(100);
+
+        // Build up a hot set.
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                String key = "hot" + i;
+                if (cache.get(key) == -1) {
+                    cache.put(key, i);
+                }
+            }
+        }
+
+        // A one-off scan of cold keys.
+        for (int i = 0; i < 10_000; i++) {
+            String key = "cold" + i;
+            if (cache.get(key) == -1) {
+                cache.put(key, i);
+            }
+        }
+
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != -1) {
+                survivors++;
+            }
+        }
+        System.out.println("hot keys surviving the scan: " + survivors + "/50"); // nearly all, LRUCache keeps none
+
+        // Write only: keys that are put again and again get past the window.
+        TinyLFUCache writes = new TinyLFUCache(100);
+        for (int i = 0; i < 10_000; i++) {
+            writes.put("hot" + (i % 50), i);
+            writes.put("cold" + i, i);
+        }
+        int admitted = 0;
+        for (int i = 0; i < 50; i++) {
+            if (writes.get("hot" + i) != -1) {
+                admitted++;
+            }
+        }
+        System.out.println("hot keys admitted by writes alone: " + admitted + "/50"); // nearly all
+    }
+}
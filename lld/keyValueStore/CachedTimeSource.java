@@ -0,0 +1,71 @@
+package lld.keyValueStore;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse wall clock: a daemon ticker thread refreshes a volatile field every
+ * tickMillis, so reading the time is a plain memory read instead of a clock
+ * call. Readings lag the real time by at most about one tick.
+ */
+public class CachedTimeSource implements TimeSource, AutoCloseable {
+
+    private final ScheduledExecutorService ticker;
+    private volatile long now;
+
+    public CachedTimeSource(long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+
+        this.now = System.currentTimeMillis();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cached-time-source");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    // Stops the ticker, the time stays at its last reading.
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private void tick() {
+        // The wall clock can step back, never let the cached time do the same.
+        long time = System.currentTimeMillis();
+        if (time > now) {
+            now = time;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try (CachedTimeSource clock = new CachedTimeSource(10)) {
+            long first = clock.currentTimeMillis();
+            Thread.sleep(100);
+            long elapsed = clock.currentTimeMillis() - first;
+            System.out.println("elapsed about 100ms: " + elapsed);
+
+            long begin = System.nanoTime();
+            long sink = 0;
+            for (int i = 0; i < 100_000_000; i++) {
+                sink += clock.currentTimeMillis();
+            }
+            System.out.printf("cached read %.2fns (sink %d)%n", (System.nanoTime() - begin) / 1e8, sink % 10);
+
+            begin = System.nanoTime();
+            for (int i = 0; i < 100_000_000; i++) {
+                sink += System.currentTimeMillis();
+            }
+            System.out.printf("System.currentTimeMillis %.2fns (sink %d)%n", (System.nanoTime() - begin) / 1e8, sink % 10);
+        }
+    }
+}
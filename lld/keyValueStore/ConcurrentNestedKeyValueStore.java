@@ -0,0 +1,576 @@
+package lld.keyValueStore;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe nested_Key_Value_Store with multi-version concurrency control.
+ *
+ * Every write (put, deleteSubKey, deleteKey) gets a commit sequence number
+ * and adds an immutable version to the head of a lock-free list with a CAS,
+ * newest sequence first. Deletes add a tombstone: to the sub key's list, or to
+ * a per key list for deleteKey. A writer marks its number finished in a ring
+ * and moves on, and whoever finishes the lowest missing number moves the
+ * visible sequence past every finished one, so the visible sequence is always
+ * a consistent cut of the store without writers waiting for each other. A
+ * writer only waits if its number is a whole ring ahead of an unfinished one,
+ * and a reader only to see its own thread's last write.
+ *
+ * A reader takes the visible sequence as its snapshot and ignores every
+ * version above it. get walks the sub key's list to the first tombstone it
+ * can see and keeps the version with the highest timestamp at or below the
+ * one asked for; every version also records the highest timestamp behind
+ * it, so the walk stops as soon as nothing older can do better. Readers take
+ * no locks, and a Snapshot keeps the same view across several reads.
+ *
+ * collect removes what no reader can see anymore. The watermark is the oldest
+ * snapshot in use (or the visible sequence if there is none). Below it,
+ * everything behind a tombstone and every version replaced by a newer one at
+ * the same timestamp is unlinked, and sub keys that are deleted for good
+ * leave the map. Readers publish their snapshot in a slot before reading, so
+ * the collector never removes versions a reader in progress can still see.
+ * A key left with no sub keys and no deleteKey above the watermark leaves the
+ * map as well, after its list of deleteKey tombstones is retired.
+ */
+class ConcurrentNestedKeyValueStore implements AutoCloseable {
+
+    private static final int READER_SLOTS = 256;
+    private static final int COMMIT_SLOTS = 1024;
+
+    private static final class Version {
+        private final int timestamp;
+        private final String value; // null for a tombstone
+        private final long seq;
+        private final int maxTimestamp; // highest timestamp of this version and the ones behind it
+        private volatile Version next;
+
+        Version(final int timestamp, final String value, final long seq, final Version next) {
+            this.timestamp = timestamp;
+            this.value = value;
+            this.seq = seq;
+            this.next = next;
+            int behind = next == null || next.value == null ? Integer.MIN_VALUE : next.maxTimestamp;
+            this.maxTimestamp = value == null ? Integer.MIN_VALUE : Math.max(timestamp, behind);
+        }
+    }
+
+    // Head of a list the collector removed from the map, writers that still hold it start over.
+    private static final Version DEAD = new Version(0, null, Long.MAX_VALUE, null);
+
+    private static final class Chain {
+        private final AtomicReference<Version> head = new AtomicReference<>();
+    }
+
+    private static final class KeyEntry {
+        private final ConcurrentHashMap<String, Chain> subKeys = new ConcurrentHashMap<>();
+        private final Chain deletions = new Chain(); // tombstones of deleteKey
+    }
+
+    private final ConcurrentHashMap<String, KeyEntry> store = new ConcurrentHashMap<>();
+    private final AtomicLong nextSeq = new AtomicLong();
+    private final AtomicLong visibleSeq = new AtomicLong();
+    // Finished sequence numbers not visible yet, number n at n % COMMIT_SLOTS.
+    private final AtomicLongArray finished = new AtomicLongArray(COMMIT_SLOTS);
+    // Sequence of the calling thread's last write, so its reads see it.
+    private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[1]);
+
+    // Snapshot + 1 of every reader in progress, 0 for a free slot.
+    private final AtomicLongArray readers = new AtomicLongArray(READER_SLOTS);
+    // Readers below this may race with a collection and must take a newer snapshot.
+    private volatile long collectFloor;
+    private ScheduledExecutorService collector;
+
+    /**
+     * A consistent view of the store as of one commit, until closed.
+     */
+    class Snapshot implements AutoCloseable {
+        private final int slot;
+        private final long seq;
+        private boolean closed;
+
+        private Snapshot(final int slot, final long seq) {
+            this.slot = slot;
+            this.seq = seq;
+        }
+
+        public String get(String key, String sub_key, int timestamp) {
+            return read(key, sub_key, timestamp, seq);
+        }
+
+        public String getLatest(String key, String sub_key) {
+            return read(key, sub_key, Integer.MAX_VALUE, seq);
+        }
+
+        public Map<String, String> getAllValues(String key) {
+            return readAll(key, seq);
+        }
+
+        @Override
+        public void close() {
+            // A second close must not free the slot again, another reader may hold it by now.
+            if (!closed) {
+                closed = true;
+                readers.set(slot, 0);
+            }
+        }
+    }
+
+    // Opens a snapshot, close it to let the collector reclaim what only it can see
+    public Snapshot snapshot() {
+        awaitVisible(lastWrite.get()[0]);
+        int slot = claimSlot();
+        return new Snapshot(slot, publish(slot));
+    }
+
+    // Method to implement the 'put' operation
+    public void put(String key, String sub_key, String value, int timestamp) {
+        Objects.requireNonNull(value, "value");
+        while (true) {
+            KeyEntry entry = store.get(key);
+            Chain chain = entry == null ? null : entry.subKeys.get(sub_key);
+            if (chain == null) {
+                // Under the key's lock, so the collector does not remove the entry in between.
+                Chain[] added = new Chain[1];
+                entry = store.compute(key, (k, current) -> {
+                    KeyEntry live = current == null ? new KeyEntry() : current;
+                    added[0] = live.subKeys.computeIfAbsent(sub_key, s -> new Chain());
+                    return live;
+                });
+                chain = added[0];
+            }
+            if (append(chain, timestamp, value)) {
+                return;
+            }
+            // The collector retired this list, help remove it and use a new one.
+            entry.subKeys.remove(sub_key, chain);
+        }
+    }
+
+    // Method to implement the 'get' operation for a specific timestamp
+    public String get(String key, String sub_key, int timestamp) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.get(key, sub_key, timestamp);
+        }
+    }
+
+    // Method to implement the 'getLatest' operation for the latest value
+    public String getLatest(String key, String sub_key) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.getLatest(key, sub_key);
+        }
+    }
+
+    // Method to implement the 'getAllValues' operation for all values of a key
+    public Map<String, String> getAllValues(String key) {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.getAllValues(key);
+        }
+    }
+
+    // Method to implement the 'deleteKey' operation
+    public void deleteKey(String key) {
+        while (true) {
+            KeyEntry entry = store.get(key);
+            if (entry == null || append(entry.deletions, 0, null)) {
+                return;
+            }
+            store.remove(key, entry); // the collector retired it, look again
+        }
+    }
+
+    // Method to implement the 'deleteSubKey' operation
+    public void deleteSubKey(String key, String sub_key) {
+        KeyEntry entry = store.get(key);
+        if (entry == null) {
+            return;
+        }
+        Chain chain = entry.subKeys.get(sub_key);
+        if (chain != null && !append(chain, 0, null)) {
+            entry.subKeys.remove(sub_key, chain); // already deleted for good
+        }
+    }
+
+    /**
+     * Unlinks every version no snapshot at or above the watermark can see.
+     * Runs alongside readers and writers.
+     *
+     * @return number of versions removed.
+     */
+    public synchronized int collect() {
+        // Raise the floor before looking at the slots: a reader that publishes
+        // after the scan sees the new floor and moves to a newer snapshot.
+        long watermark = visibleSeq.get();
+        collectFloor = watermark;
+        for (int i = 0; i < READER_SLOTS; i++) {
+            long reader = readers.get(i);
+            if (reader != 0) {
+                watermark = Math.min(watermark, reader - 1);
+            }
+        }
+
+        int removed = 0;
+        for (KeyEntry entry : store.values()) {
+            long keyCut = 0;
+            Version deletion = firstAtOrBelow(entry.deletions.head.get(), watermark);
+            if (deletion != null) {
+                keyCut = deletion.seq;
+                // The newest tombstone below the watermark covers the older ones.
+                for (Version v = deletion.next; v != null; v = v.next) {
+                    removed++;
+                }
+                deletion.next = null;
+            }
+
+            for (Map.Entry<String, Chain> sub : entry.subKeys.entrySet()) {
+                removed += collect(entry, sub.getKey(), sub.getValue(), watermark, keyCut);
+            }
+        }
+
+        // Keys with nothing left. Adding a sub key takes the key's lock too, so none can slip in.
+        for (Map.Entry<String, KeyEntry> key : store.entrySet()) {
+            if (key.getValue().subKeys.isEmpty()) {
+                removed += removeKey(key.getKey(), watermark);
+            }
+        }
+        return removed;
+    }
+
+    // Runs collect every periodMillis on a daemon thread
+    public synchronized void startCollector(long periodMillis) {
+        if (collector != null) {
+            return;
+        }
+        collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nested-store-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        collector.scheduleWithFixedDelay(this::collect, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (collector != null) {
+            collector.shutdownNow();
+            collector = null;
+        }
+    }
+
+    /**
+     * Adds a version (a tombstone if value is null) under a new sequence
+     * number. The list stays ordered by sequence: if a newer version got in
+     * first, the number is given up and a new one taken.
+     *
+     * @return false if the list is retired.
+     */
+    private boolean append(Chain chain, int timestamp, String value) {
+        while (true) {
+            Version head = chain.head.get();
+            if (head == DEAD) {
+                return false;
+            }
+            long seq = nextSeq.incrementAndGet();
+            boolean linked = false;
+            try {
+                linked = (head == null || head.seq < seq)
+                        && chain.head.compareAndSet(head, new Version(timestamp, value, seq, head));
+            } finally {
+                finish(seq); // a number given up or failed still has to finish, the cut cannot pass it otherwise
+            }
+            if (linked) {
+                lastWrite.get()[0] = seq;
+                return true;
+            }
+        }
+    }
+
+    // Marks seq finished and makes visible every finished number after the visible one.
+    private void finish(long seq) {
+        // The slot is free once the number a ring before seq is visible.
+        for (int spins = 0; seq - visibleSeq.get() > COMMIT_SLOTS; spins++) {
+            backOff(spins);
+        }
+        finished.set((int) (seq % COMMIT_SLOTS), seq);
+
+        // Whoever finishes the lowest missing number sees the ones finished after it here.
+        long visible = visibleSeq.get();
+        while (finished.get((int) ((visible + 1) % COMMIT_SLOTS)) == visible + 1) {
+            if (visibleSeq.compareAndSet(visible, visible + 1)) {
+                visible++;
+            } else {
+                visible = visibleSeq.get();
+            }
+        }
+    }
+
+    // Waits until seq is visible, for a thread reading after its own write while an older one is unfinished.
+    private void awaitVisible(long seq) {
+        for (int spins = 0; visibleSeq.get() < seq; spins++) {
+            backOff(spins);
+        }
+    }
+
+    private static void backOff(int spins) {
+        if (spins < 64) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield(); // the writer we wait for may not be running
+        }
+    }
+
+    private String read(String key, String sub_key, int timestamp, long seq) {
+        KeyEntry entry = store.get(key);
+        if (entry == null) {
+            return "";
+        }
+        Chain chain = entry.subKeys.get(sub_key);
+        if (chain == null) {
+            return "";
+        }
+        Version found = floor(chain, timestamp, seq, keyCut(entry, seq));
+        return found == null ? "" : found.value;
+    }
+
+    private Map<String, String> readAll(String key, long seq) {
+        Map<String, String> result = new HashMap<>();
+        KeyEntry entry = store.get(key);
+        if (entry == null) {
+            return result;
+        }
+        long keyCut = keyCut(entry, seq);
+        for (Map.Entry<String, Chain> sub : entry.subKeys.entrySet()) {
+            Version latest = floor(sub.getValue(), Integer.MAX_VALUE, seq, keyCut);
+            if (latest != null) {
+                result.put(sub.getKey(), latest.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The version with the highest timestamp at or below timestamp among those
+     * visible at seq, newer than keyCut and not behind a tombstone. The
+     * newest version wins a tie.
+     */
+    private static Version floor(Chain chain, int timestamp, long seq, long keyCut) {
+        Version best = null;
+        for (Version v = chain.head.get(); v != null; v = v.next) {
+            if (v.seq > seq) {
+                continue; // committed after the snapshot
+            }
+            if (v.seq <= keyCut || v.value == null) {
+                break;
+            }
+            if (v.timestamp <= timestamp && (best == null || v.timestamp > best.timestamp)) {
+                best = v;
+            }
+            if (best != null && best.timestamp >= v.maxTimestamp) {
+                break; // nothing behind it is closer to timestamp
+            }
+        }
+        return best;
+    }
+
+    // Sequence of the newest deleteKey visible at seq, 0 if there is none.
+    private static long keyCut(KeyEntry entry, long seq) {
+        Version deletion = firstAtOrBelow(entry.deletions.head.get(), seq);
+        return deletion == null ? 0 : deletion.seq;
+    }
+
+    private static Version firstAtOrBelow(Version v, long seq) {
+        while (v != null && v.seq > seq) {
+            v = v.next;
+        }
+        return v;
+    }
+
+    /**
+     * Collects one sub key's list. Writers only link new versions at the head
+     * and never change a next pointer afterwards, so below the head only the
+     * collector writes, and at the head it competes with writers by CAS.
+     */
+    private int collect(KeyEntry entry, String sub_key, Chain chain, long watermark, long keyCut) {
+        int removed = 0;
+        Set<Integer> timestamps = null;
+        Version pred = null;
+        Version v = chain.head.get();
+        while (v != null && v != DEAD) {
+            if (v.seq > watermark) {
+                pred = v;
+                v = v.next;
+                continue;
+            }
+
+            if (v.seq <= keyCut || v.value == null) {
+                // Deleted for every snapshot from the watermark on.
+                int cut = 0;
+                for (Version dead = v; dead != null; dead = dead.next) {
+                    cut++;
+                }
+                boolean unlinked;
+                if (pred == null) {
+                    unlinked = chain.head.compareAndSet(v, DEAD);
+                    if (unlinked) {
+                        entry.subKeys.remove(sub_key, chain);
+                    }
+                } else {
+                    pred.next = null;
+                    unlinked = true;
+                }
+                return unlinked ? removed + cut : removed; // lost a race with a writer, next time
+            }
+
+            if (timestamps == null) {
+                timestamps = new HashSet<>();
+            }
+            Version next = v.next;
+            if (!timestamps.add(v.timestamp)) {
+                // Replaced by a newer version at the same timestamp, also below the watermark.
+                boolean unlinked = true;
+                if (pred == null) {
+                    unlinked = chain.head.compareAndSet(v, next);
+                } else {
+                    pred.next = next;
+                }
+                if (unlinked) {
+                    removed++;
+                    v = next;
+                    continue;
+                }
+            }
+            pred = v;
+            v = next;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes a key with no sub keys if its deleteKey tombstone, if any, is
+     * below the watermark. The tombstone list is retired first, so a deleteKey
+     * still holding the entry starts over.
+     *
+     * @return number of tombstones removed with it.
+     */
+    private int removeKey(String key, long watermark) {
+        int[] tombstones = new int[1];
+        store.computeIfPresent(key, (k, entry) -> {
+            Version head = entry.deletions.head.get();
+            if (!entry.subKeys.isEmpty() || (head != null && head.seq > watermark)
+                    || !entry.deletions.head.compareAndSet(head, DEAD)) {
+                return entry; // in use again
+            }
+            tombstones[0] = head == null ? 0 : 1;
+            return null;
+        });
+        return tombstones[0];
+    }
+
+    private int claimSlot() {
+        int start = (int) Thread.currentThread().getId() & (READER_SLOTS - 1);
+        while (true) {
+            for (int i = 0; i < READER_SLOTS; i++) {
+                int slot = (start + i) & (READER_SLOTS - 1);
+                // Placeholder 1 (snapshot 0) holds the watermark down until the real one is set.
+                if (readers.get(slot) == 0 && readers.compareAndSet(slot, 0, 1)) {
+                    return slot;
+                }
+            }
+            Thread.yield(); // every slot busy
+        }
+    }
+
+    // Publishes a snapshot in the slot, newer than any collection in progress.
+    private long publish(int slot) {
+        long seq = visibleSeq.get();
+        readers.set(slot, seq + 1);
+        while (seq < collectFloor) {
+            seq = visibleSeq.get();
+            readers.set(slot, seq + 1);
+        }
+        return seq;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentNestedKeyValueStore store = new ConcurrentNestedKeyValueStore();
+
+        store.put("user1", "email", "alice@example.com", 1);
+        store.put("user1", "email", "alice@work.com", 2);
+        store.put("user1", "phone", "123-456", 3);
+        System.out.println(store.get("user1", "email", 1)); // alice@example.com
+        System.out.println(store.get("user1", "email", 5)); // alice@work.com
+        System.out.println(store.getAllValues("user1")); // {phone=123-456, email=alice@work.com}
+
+        // A snapshot keeps its view while writers go on.
+        try (ConcurrentNestedKeyValueStore.Snapshot snapshot = store.snapshot()) {
+            store.put("user1", "email", "alice@home.com", 3);
+            store.deleteSubKey("user1", "phone");
+            System.out.println(snapshot.getLatest("user1", "email")); // alice@work.com
+            System.out.println(snapshot.getLatest("user1", "phone")); // 123-456
+            System.out.println(store.collect()); // 0, the snapshot still sees everything
+        }
+        System.out.println(store.getLatest("user1", "email")); // alice@home.com
+        System.out.println(store.getLatest("user1", "phone")); // empty, deleted
+        System.out.println(store.collect()); // 2, phone's version and its tombstone
+
+        store.put("user2", "email", "bob@example.com", 1);
+        store.put("user2", "email", "bob@work.com", 1); // same timestamp, replaces it
+        store.deleteKey("user1");
+        System.out.println(store.get("user2", "email", 1)); // bob@work.com
+        System.out.println(store.getAllValues("user1")); // {}
+        System.out.println(store.collect()); // 5: user1's 3 emails, its deleteKey and user2's replaced email
+
+        // Writers and readers in parallel. A reader's two reads from one snapshot always agree.
+        store.startCollector(5);
+        int writers = 4;
+        int readerThreads = 4;
+        long deadline = System.currentTimeMillis() + 2_000;
+        AtomicLong reads = new AtomicLong();
+        AtomicLong mismatches = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            threads.add(new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                    String key = "key" + random.nextInt(100);
+                    if (random.nextInt(50) == 0) {
+                        store.deleteSubKey(key, "sub" + random.nextInt(4));
+                    } else {
+                        store.put(key, "sub" + random.nextInt(4), "v" + i, random.nextInt(1_000));
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < readerThreads; r++) {
+            final int id = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(100 + id);
+                while (System.currentTimeMillis() < deadline) {
+                    String key = "key" + random.nextInt(100);
+                    try (ConcurrentNestedKeyValueStore.Snapshot snapshot = store.snapshot()) {
+                        Map<String, String> all = snapshot.getAllValues(key);
+                        String latest = snapshot.getLatest(key, "sub0");
+                        if (!latest.equals(all.getOrDefault("sub0", ""))) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        store.close();
+        System.out.println(reads.get() + " snapshot reads, " + mismatches.get() + " inconsistent"); // 0 inconsistent
+    }
+}
@@ -0,0 +1,591 @@
+package lld.keyValueStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * WindowedKeyValueStoreConcurrent backed by a write-ahead log, so a restart
+ * gets the window back instead of starting empty.
+ *
+ * The log is a directory of segment files, each named after the time it was
+ * opened. A segment is
+ *
+ * [magic int][version int] then per record
+ * [keyLen int][crc int][timestamp long][value long][key UTF-8 bytes]
+ *
+ * where the crc covers timestamp, value and key. Records go to an in-memory
+ * buffer and reach the file through a FileChannel in groups: with
+ * syncIntervalMillis 0 a put returns once its record is forced to disk, and
+ * every put waiting meanwhile is written and forced along with it by one
+ * thread (group commit). With a positive interval a daemon thread writes and
+ * forces every interval instead and puts never wait, losing at most one
+ * interval on a crash. Values are visible to readers before they are durable.
+ *
+ * A failed write cuts the segment back to its last whole record and keeps
+ * the records for the next flush. A failed force leaves what reached the disk
+ * unknown, so the log stops there: later puts and flushes throw.
+ *
+ * A segment is rolled every window / 8 of time. Every record of a segment is
+ * stamped before the next segment opens, so once the next segment's start
+ * time is a full window in the past the segment only holds expired records
+ * and is deleted, and disk use stays around one window. On startup those
+ * segments are skipped without being read, the rest are replayed through
+ * put with their original timestamps, and a record torn by the crash at the
+ * end of the last segment is cut off.
+ */
+public class DurableWindowedKeyValueStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x5757414C; // "WWAL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 24; // keyLen, crc, timestamp, value
+    private static final int MAX_KEY_BYTES = 1 << 24;
+    private static final String SUFFIX = ".wal";
+
+    private static class Segment {
+        private final Path path;
+        private final long startMillis;
+
+        Segment(final Path path, final long startMillis) {
+            this.path = path;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private final long expiryWindowMillis;
+    private final long segmentMillis;
+    private final Path dir;
+    private final TimeSource timeSource;
+    private final WindowedKeyValueStoreConcurrent store;
+
+    // Appending: the buffer fills under appendLock, in the same order puts reach the store.
+    private final Object appendLock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private long appendedRecords;
+
+    // Flushing: one thread at a time writes and forces the buffer, under flushLock.
+    private final Object flushLock = new Object();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private FileChannel channel;
+    private long segmentBytes;
+    private volatile long durableRecords;
+    private long syncs;
+    private ScheduledExecutorService flusher;
+    private volatile boolean closed;
+    private volatile IOException failure; // set once the log cannot be trusted any more
+
+    // Every put waits for its group commit, wall clock time.
+    public DurableWindowedKeyValueStore(long expiryWindowMillis, Path dir) throws IOException {
+        this(expiryWindowMillis, dir, 0, TimeSource.SYSTEM);
+    }
+
+    /**
+     * Opens the log in dir, creating it if needed, and replays its unexpired
+     * records.
+     *
+     * @param syncIntervalMillis: 0 to make every put durable before it
+     *                            returns, otherwise how often a background
+     *                            thread writes and forces the log.
+     */
+    public DurableWindowedKeyValueStore(long expiryWindowMillis, Path dir, long syncIntervalMillis,
+            TimeSource timeSource) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative");
+        }
+        this.expiryWindowMillis = expiryWindowMillis;
+        this.segmentMillis = Math.max(1, expiryWindowMillis / 8);
+        this.dir = dir;
+        this.timeSource = timeSource;
+        this.store = new WindowedKeyValueStoreConcurrent(expiryWindowMillis, timeSource);
+
+        Files.createDirectories(dir);
+        replay();
+        synchronized (flushLock) {
+            openSegment(timeSource.currentTimeMillis());
+        }
+
+        if (syncIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "windowed-store-wal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Stores the key with the given value and current time
+    public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Stores the key with the given value as of the given time
+    public void put(String key, long value, long timestamp) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long record;
+        synchronized (appendLock) {
+            checkOpen();
+            timeSource.observe(timestamp);
+            long now = timeSource.currentTimeMillis();
+            long stamped = Math.min(timestamp, now);
+            if (stamped + expiryWindowMillis < now) {
+                return; // already expired, nothing to log
+            }
+            append(keyBytes, value, stamped);
+            record = ++appendedRecords;
+            store.put(key, value, stamped);
+        }
+        awaitDurable(record);
+    }
+
+    // Stores a batch with the current time, waiting for one group commit for all of it
+    public void putAll(Map<String, Long> entries) {
+        putAll(entries, timeSource.currentTimeMillis());
+    }
+
+    // Stores a batch as of the given time
+    public void putAll(Map<String, Long> entries, long timestamp) {
+        long record;
+        synchronized (appendLock) {
+            checkOpen();
+            timeSource.observe(timestamp);
+            long now = timeSource.currentTimeMillis();
+            long stamped = Math.min(timestamp, now);
+            if (stamped + expiryWindowMillis < now) {
+                return;
+            }
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                append(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue(), stamped);
+            }
+            appendedRecords += entries.size();
+            record = appendedRecords;
+            store.putAll(entries, stamped);
+        }
+        awaitDurable(record);
+    }
+
+    // Retrieves the value if not expired, otherwise returns -1
+    public long get(String key) {
+        return store.get(key);
+    }
+
+    // Values of the keys that are present and not expired, missing keys are left out
+    public Map<String, Long> getAll(Collection<String> keys) {
+        return store.getAll(keys);
+    }
+
+    // Returns the average of all non-expired values
+    public double getAverage() {
+        return store.getAverage();
+    }
+
+    /**
+     * Writes and forces everything appended so far, then rolls the segment
+     * and deletes expired ones if it is time to.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            if (closed) {
+                return;
+            }
+            if (failure != null) {
+                throw new IOException("write-ahead log in " + dir + " failed earlier", failure);
+            }
+            ByteBuffer batch;
+            long upTo;
+            synchronized (appendLock) {
+                batch = pending;
+                pending = spare;
+                upTo = appendedRecords;
+            }
+            spare = null;
+
+            batch.flip();
+            if (batch.hasRemaining()) {
+                write(batch);
+            }
+            batch.clear();
+            spare = batch;
+            durableRecords = upTo;
+
+            long now = timeSource.currentTimeMillis();
+            if (segmentBytes > HEADER_BYTES && now >= segments.peekLast().startMillis + segmentMillis) {
+                channel.close();
+                openSegment(now);
+            }
+            deleteExpiredSegments(now);
+        }
+    }
+
+    // Flushes, stops the background flusher and closes the log. The store stays readable.
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdownNow();
+                flusher = null;
+            }
+        }
+        synchronized (flushLock) {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                synchronized (appendLock) {
+                    closed = true;
+                }
+                channel.close();
+                store.close();
+            }
+        }
+    }
+
+    // Number of fsyncs so far, every one covers a whole group of records.
+    long syncCount() {
+        synchronized (flushLock) {
+            return syncs;
+        }
+    }
+
+    int segmentCount() {
+        synchronized (flushLock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Writes the batch at the end of the segment and forces it. On failure the
+     * batch goes back in front of pending and nothing is counted durable. A
+     * failed write is cut off the segment so the next flush can retry, a
+     * failed force or cut stops the log. Holds flushLock.
+     */
+    private void write(ByteBuffer batch) throws IOException {
+        int bytes = batch.remaining();
+        boolean written = false;
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            written = true;
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            requeue(batch);
+            if (written) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                throw e;
+            }
+            try {
+                channel.truncate(segmentBytes);
+                channel.position(segmentBytes);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            throw e;
+        }
+        segmentBytes += bytes;
+        syncs++;
+    }
+
+    // Puts a batch that did not reach the disk back in front of the records appended since. Holds flushLock.
+    private void requeue(ByteBuffer batch) {
+        batch.rewind();
+        synchronized (appendLock) {
+            pending.flip();
+            ByteBuffer merged = ByteBuffer.allocate(
+                    Math.max(batch.capacity(), batch.remaining() + pending.remaining() + (1 << 16)));
+            merged.put(batch).put(pending);
+            pending.clear();
+            spare = pending;
+            pending = merged;
+        }
+    }
+
+    // Encodes one record into the pending buffer, growing it if needed. Holds appendLock.
+    private void append(byte[] key, long value, long timestamp) {
+        int size = RECORD_HEADER_BYTES + key.length;
+        if (pending.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+
+        int start = pending.position();
+        pending.putInt(key.length);
+        pending.putInt(0); // crc, filled in below
+        pending.putLong(timestamp);
+        pending.putLong(value);
+        pending.put(key);
+
+        crc.reset();
+        crc.update(pending.array(), start + 8, size - 8);
+        pending.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("write-ahead log in " + dir + " is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("write-ahead log in " + dir + " failed, it takes no more writes", failure);
+        }
+    }
+
+    private void awaitDurable(long record) {
+        if (flusher != null || durableRecords >= record) {
+            return;
+        }
+        synchronized (flushLock) {
+            // Whoever held the lock before may have written this record already.
+            if (durableRecords >= record) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("write-ahead log in " + dir + " failed", e);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        if (failure != null) {
+            return; // reported once, puts throw from now on
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("write-ahead log flush in " + dir + " failed: " + e);
+        }
+    }
+
+    // Holds flushLock.
+    private void openSegment(long now) throws IOException {
+        // Start times must grow even if the clock did not, they order and name the segments.
+        long start = segments.isEmpty() ? now : Math.max(now, segments.peekLast().startMillis + 1);
+        Path path = dir.resolve(start + SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true); // the new file name has to survive a crash too
+        segments.add(new Segment(path, start));
+        segmentBytes = HEADER_BYTES;
+    }
+
+    // A segment is expired once the segment after it started more than a window ago.
+    private void deleteExpiredSegments(long now) throws IOException {
+        while (segments.size() > 1) {
+            Iterator<Segment> it = segments.iterator();
+            Segment oldest = it.next();
+            if (it.next().startMillis + expiryWindowMillis >= now) {
+                return;
+            }
+            Files.deleteIfExists(oldest.path);
+            segments.poll();
+        }
+    }
+
+    private void replay() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    found.add(new Segment(path, Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(segment -> segment.startMillis));
+
+        long now = timeSource.currentTimeMillis();
+        for (int i = 0; i < found.size(); i++) {
+            Segment segment = found.get(i);
+            boolean last = i == found.size() - 1;
+            if (!last && found.get(i + 1).startMillis + expiryWindowMillis < now) {
+                // Everything in it expired, skip it without reading.
+                Files.deleteIfExists(segment.path);
+                continue;
+            }
+            replaySegment(segment, last);
+            segments.add(segment);
+        }
+    }
+
+    private void replaySegment(Segment segment, boolean last) throws IOException {
+        try (FileChannel in = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            long position = 0; // file offset of the buffer's first byte
+            boolean eof = fill(in, buffer);
+
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                if (last && buffer.limit() < HEADER_BYTES) {
+                    in.truncate(0); // crashed while creating it
+                    return;
+                }
+                throw new IOException("not a write-ahead log segment: " + segment.path);
+            }
+
+            byte[] key = new byte[64];
+            CRC32 check = new CRC32();
+            while (true) {
+                if (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                    int keyLen = buffer.getInt(buffer.position());
+                    if (keyLen < 0 || keyLen > MAX_KEY_BYTES) {
+                        torn(in, segment, last, position + buffer.position());
+                        return;
+                    }
+                }
+                if (buffer.remaining() < RECORD_HEADER_BYTES || buffer.remaining() < RECORD_HEADER_BYTES
+                        + buffer.getInt(buffer.position())) {
+                    if (!eof) {
+                        position += buffer.position();
+                        buffer.compact();
+                        if (buffer.remaining() == 0) {
+                            // One record larger than the buffer.
+                            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                            buffer.flip();
+                            larger.put(buffer);
+                            buffer = larger;
+                        }
+                        eof = fill(in, buffer);
+                        continue;
+                    }
+                    if (buffer.hasRemaining()) {
+                        torn(in, segment, last, position + buffer.position());
+                    }
+                    return;
+                }
+
+                int recordStart = buffer.position();
+                int keyLen = buffer.getInt();
+                int expected = buffer.getInt();
+                check.reset();
+                check.update(buffer.array(), buffer.position(), 16 + keyLen);
+                if ((int) check.getValue() != expected) {
+                    torn(in, segment, last, position + recordStart);
+                    return;
+                }
+
+                long timestamp = buffer.getLong();
+                long value = buffer.getLong();
+                if (keyLen > key.length) {
+                    key = new byte[Math.max(keyLen, key.length * 2)];
+                }
+                buffer.get(key, 0, keyLen);
+                // Expired records and ones older than what a later record already set are dropped by put.
+                store.put(new String(key, 0, keyLen, StandardCharsets.UTF_8), value, timestamp);
+            }
+        }
+    }
+
+    // Reads until the buffer is full or the file ends, then flips it. Returns whether the file ended.
+    private static boolean fill(FileChannel in, ByteBuffer buffer) throws IOException {
+        boolean eof = false;
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+        return eof;
+    }
+
+    // A bad record at the end of the last segment was cut short by a crash, anywhere else it is corruption.
+    private static void torn(FileChannel in, Segment segment, boolean last, long offset) throws IOException {
+        if (!last) {
+            throw new IOException("corrupt write-ahead log segment " + segment.path + " at offset " + offset);
+        }
+        in.truncate(offset);
+        in.force(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("windowed-wal");
+
+        // Expiry window: 1.5 sec
+        DurableWindowedKeyValueStore store = new DurableWindowedKeyValueStore(1500, dir);
+        store.put("a", 10); // T
+        store.put("b", 20); // T
+        store.put("c", 30); // T
+        System.out.println("Average at T: " + store.getAverage()); // Expected: 20.0
+        store.close();
+
+        // A crash in the middle of a write leaves half a record at the end of the log.
+        Path tail = Files.list(dir).sorted().reduce((first, second) -> second).get();
+        Files.write(tail, new byte[] {0, 0, 0, 5, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        store = new DurableWindowedKeyValueStore(1500, dir);
+        System.out.println("Average after restart: " + store.getAverage()); // Expected: 20.0, torn record dropped
+        Thread.sleep(1_000); // T + 1s
+        store.put("d", 40);
+        store.put("a", 50);
+        Thread.sleep(1_000); // T + 2s, b and c expired
+        store.put("e", 60);
+        store.close();
+
+        store = new DurableWindowedKeyValueStore(1500, dir);
+        System.out.println("Average after second restart: " + store.getAverage()); // Expected: (40 + 50 + 60) / 3 = 50.0
+        System.out.println("get value of b " + store.get("b")); // -1
+
+        // Keep writing for a few windows, old segments go away as they expire.
+        long deadline = System.currentTimeMillis() + 5_000;
+        for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+            store.put("key" + i % 1000, i);
+            Thread.sleep(1);
+        }
+        System.out.println("segments after 5s: " + store.segmentCount() + " (about 1500 / (1500 / 8) + 1 = 9)");
+        store.close();
+
+        // Group commit: many writers share each fsync.
+        int threadCount = 8;
+        int putsPerThread = 2_000;
+        DurableWindowedKeyValueStore shared = new DurableWindowedKeyValueStore(60_000, dir);
+        long syncsBefore = shared.syncCount();
+        Thread[] threads = new Thread[threadCount];
+        long begin = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < putsPerThread; i++) {
+                    shared.put("writer" + id + "-" + i, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - begin) / 1_000_000;
+        long syncs = shared.syncCount() - syncsBefore;
+        System.out.printf("%d durable puts from %d threads in %dms, %d fsyncs, %.1f records per fsync%n",
+                threadCount * putsPerThread, threadCount, millis, syncs, (double) threadCount * putsPerThread / syncs);
+        shared.close();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+}
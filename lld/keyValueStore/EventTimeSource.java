@@ -0,0 +1,75 @@
+package lld.keyValueStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event time: the current time is a watermark, the largest event timestamp
+ * observed so far. A store using it stamps entries with the timestamps passed
+ * to put and expires them as the watermark moves, so a day of recorded events
+ * replays at full speed with the same results as when it happened live.
+ *
+ * Events older than the watermark are still accepted while they are inside
+ * the window; anything older than that is already expired and dropped.
+ */
+public class EventTimeSource implements TimeSource {
+
+    private final AtomicLong watermark;
+
+    public EventTimeSource() {
+        this(Long.MIN_VALUE);
+    }
+
+    // Starts the watermark at the given time instead of at the first event.
+    public EventTimeSource(long initialWatermark) {
+        this.watermark = new AtomicLong(initialWatermark);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return watermark.get();
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        // Cheap read first, most events don't move the watermark under contention.
+        if (timestamp > watermark.get()) {
+            watermark.accumulateAndGet(timestamp, Math::max);
+        }
+    }
+
+    // Moves the watermark without an event, e.g. to flush a quiet stream.
+    public void advanceTo(long timestamp) {
+        observe(timestamp);
+    }
+
+    public static void main(String[] args) {
+        // The example from WindowedKeyValueStore, replayed instantly: window 15s, events at T, T+10s, T+20s, T+30s.
+        EventTimeSource eventTime = new EventTimeSource();
+        WindowedKeyValueStore store = new WindowedKeyValueStore(15_000, eventTime);
+        long t = 1_700_000_000_000L;
+
+        store.put("a", 10, t);
+        store.put("b", 20, t);
+        store.put("c", 30, t);
+        System.out.println("Average at T: " + store.getAverage()); // 20.0
+
+        store.put("d", 40, t + 10_000);
+        store.put("late", 70, t + 2_000); // arrives late, still inside the window
+        System.out.println("Average at T + 10s: " + store.getAverage()); // (10 + 20 + 30 + 40 + 70) / 5 = 34.0
+
+        store.put("e", 50, t + 20_000);
+        System.out.println("Average at T + 20s: " + store.getAverage()); // (40 + 50) / 2 = 45.0
+        store.put("too late", 1, t + 1_000); // expired at T + 16s, dropped
+        System.out.println("get value of too late " + store.get("too late")); // -1
+
+        // A day of events, one per 100ms of event time, replayed at full speed.
+        WindowedKeyValueStoreConcurrent day = new WindowedKeyValueStoreConcurrent(60_000, new EventTimeSource());
+        long begin = System.nanoTime();
+        for (long time = t; time < t + 86_400_000L; time += 100) {
+            day.put("sensor" + (time / 100 % 1_000), time / 100 % 1_000, time);
+        }
+        System.out.printf("replayed 864000 events in %dms, average %.1f%n", (System.nanoTime() - begin) / 1_000_000,
+                day.getAverage());
+        // 600 keys in the last minute of event time
+    }
+}
@@ -0,0 +1,244 @@
+package lld.keyValueStore;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Expiry index for the windowed stores: a circular array of time buckets that
+ * covers the expiry window.
+ *
+ * An entry goes into the bucket of its expiry time, bucket k holding expiry
+ * times in [k * granularity, (k + 1) * granularity). Every bucket keeps its
+ * entries plus the partial sum and count of their values, so once the clock
+ * passes the end of a bucket the whole bucket retires at once: the store
+ * subtracts the partials in O(1), and the bucket's entries join a removal
+ * backlog that drain works through, as much per call as the store allows.
+ * Entries leave the totals up to one granularity after their exact expiry
+ * time, which is the precision traded for not ordering entries one by one.
+ *
+ * Entries replaced or removed before their bucket retires must be reported
+ * through remove, so the partials only ever count live entries. Their stale
+ * references stay in the bucket and the store skips them when draining. An
+ * entry whose bucket has retired (isRetired) is no longer in the totals even
+ * if it has not been drained yet.
+ *
+ * Not thread safe, callers guard it with their own lock.
+ */
+class ExpiryRing<T> {
+
+    /**
+     * Receives the sum and count of the live values of a retired bucket.
+     */
+    interface Retirer {
+        void retire(long sum, long count);
+    }
+
+    private final long granularityMillis;
+    private final List<T>[] entries;
+    private final long[] ticks;
+    private final long[] sums;
+    private final long[] counts;
+    private long retiredUpTo; // every tick below this is retired
+    private long size;
+
+    // Entry lists of retired buckets waiting to be drained, and emptied lists for reuse.
+    private final ArrayDeque<List<T>> backlog = new ArrayDeque<>();
+    private final ArrayDeque<List<T>> spareLists = new ArrayDeque<>();
+    private int backlogIndex;
+    private long backlogSize;
+
+    // Default granularity of a 1024th of the window.
+    ExpiryRing(final long windowMillis) {
+        this(windowMillis, Math.max(1, windowMillis / 1024));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ExpiryRing(final long windowMillis, final long granularityMillis) {
+        if (windowMillis <= 0 || granularityMillis <= 0) {
+            throw new IllegalArgumentException("window and granularity must be positive");
+        }
+
+        // Room for a full window of future ticks plus the one being filled and the one retiring.
+        long slots = (windowMillis + granularityMillis - 1) / granularityMillis + 2;
+        if (slots > 1 << 24) {
+            throw new IllegalArgumentException("granularity too fine for the window");
+        }
+
+        this.granularityMillis = granularityMillis;
+        this.entries = new List[(int) slots];
+        this.ticks = new long[(int) slots];
+        this.sums = new long[(int) slots];
+        this.counts = new long[(int) slots];
+        this.retiredUpTo = Long.MIN_VALUE;
+        Arrays.fill(ticks, Long.MIN_VALUE);
+    }
+
+    /**
+     * Files an entry under its expiry time. Retire up to the current time
+     * first, so the ring never holds more than one window. A clock that went
+     * back can leave the bucket retired already, callers check isRetired
+     * before counting the value in their totals.
+     *
+     * @return false if that bucket has already retired, the entry is expired.
+     */
+    boolean add(T entry, long expiryTime, long value) {
+        long tick = Math.floorDiv(expiryTime, granularityMillis);
+        if (tick < retiredUpTo) {
+            return false;
+        }
+
+        int slot = slot(tick);
+        if (ticks[slot] != tick) {
+            if (counts[slot] != 0 || (entries[slot] != null && !entries[slot].isEmpty())) {
+                throw new IllegalStateException("expiry time beyond the window, retire before adding");
+            }
+            ticks[slot] = tick;
+        }
+        if (entries[slot] == null) {
+            entries[slot] = spareLists.isEmpty() ? new ArrayList<>() : spareLists.pop();
+        }
+        entries[slot].add(entry);
+        sums[slot] += value;
+        counts[slot]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Takes a replaced or removed entry out of its bucket's partials.
+     */
+    void remove(long expiryTime, long value) {
+        long tick = Math.floorDiv(expiryTime, granularityMillis);
+        int slot = slot(tick);
+        if (tick >= retiredUpTo && ticks[slot] == tick) {
+            sums[slot] -= value;
+            counts[slot]--;
+            size--;
+        }
+    }
+
+    /**
+     * Retires every bucket that ends at or before now, oldest first. The
+     * partials go to the retirer right away, the entries to the backlog.
+     * Costs at most one step per slot, however long the clock was idle.
+     */
+    void retire(long now, Retirer retirer) {
+        long limit = Math.floorDiv(now, granularityMillis);
+        if (limit <= retiredUpTo) {
+            return;
+        }
+
+        // After a long pause only the last ring's worth of ticks can still hold entries.
+        long from = Math.max(retiredUpTo, limit - entries.length);
+        for (long tick = from; tick < limit; tick++) {
+            int slot = slot(tick);
+            if (ticks[slot] >= limit || entries[slot] == null || entries[slot].isEmpty()) {
+                continue;
+            }
+            if (counts[slot] == 0) {
+                // Only stale entries, nothing to remove from the store.
+                entries[slot].clear();
+                continue;
+            }
+            retirer.retire(sums[slot], counts[slot]);
+            size -= counts[slot];
+            backlog.add(entries[slot]);
+            backlogSize += entries[slot].size();
+            entries[slot] = null;
+            sums[slot] = 0;
+            counts[slot] = 0;
+        }
+        retiredUpTo = limit;
+    }
+
+    /**
+     * Adds to totals (sum, count) the partials retire(now) would hand over,
+     * without retiring anything. Read only, so readers can correct a running
+     * total for buckets that are due but not retired yet. Under an optimistic
+     * read the arrays may be mid update, the caller validates afterwards.
+     */
+    void due(long now, long[] totals) {
+        long limit = Math.floorDiv(now, granularityMillis);
+        long retired = retiredUpTo;
+        if (limit <= retired) {
+            return;
+        }
+
+        long from = Math.max(retired, limit - entries.length);
+        for (long tick = from; tick < limit; tick++) {
+            int slot = slot(tick);
+            if (ticks[slot] < limit) {
+                totals[0] += sums[slot];
+                totals[1] += counts[slot];
+            }
+        }
+    }
+
+    /**
+     * Hands at most maxEntries backlog entries to the remover, oldest first.
+     * Stale entries are handed over too, the remover must check them.
+     *
+     * @return number of entries handed over.
+     */
+    int drain(int maxEntries, Consumer<T> remover) {
+        int drained = 0;
+        while (drained < maxEntries && !backlog.isEmpty()) {
+            List<T> list = backlog.peek();
+            while (drained < maxEntries && backlogIndex < list.size()) {
+                remover.accept(list.get(backlogIndex++));
+                drained++;
+            }
+            if (backlogIndex == list.size()) {
+                // The list is reused, no allocation in steady state.
+                backlog.poll();
+                list.clear();
+                spareLists.push(list);
+                backlogIndex = 0;
+            }
+        }
+        backlogSize -= drained;
+        return drained;
+    }
+
+    // Entries of retired buckets not drained yet, stale ones included.
+    long backlog() {
+        return backlogSize;
+    }
+
+    // Whether the bucket of this expiry time has retired, its value is out of the totals.
+    boolean isRetired(long expiryTime) {
+        return Math.floorDiv(expiryTime, granularityMillis) < retiredUpTo;
+    }
+
+    // Live entries still in the ring.
+    long size() {
+        return size;
+    }
+
+    long granularityMillis() {
+        return granularityMillis;
+    }
+
+    private int slot(long tick) {
+        return (int) Math.floorMod(tick, (long) entries.length);
+    }
+
+    public static void main(String[] args) {
+        ExpiryRing<String> ring = new ExpiryRing<>(1_000, 100);
+        ring.add("a", 1_050, 10);
+        ring.add("b", 1_080, 20);
+        ring.add("c", 1_420, 30);
+        ring.remove(1_080, 20); // b was overwritten
+
+        ring.retire(1_099, (sum, count) -> System.out.println("early"));
+        // nothing yet, bucket [1000, 1100) is still open
+
+        ring.retire(1_100, (sum, count) -> System.out.println("sum=" + sum + " count=" + count));
+        // sum=10 count=1, b is stale
+        System.out.println(ring.size() + " live, " + ring.backlog() + " to drain"); // 1 live, 2 to drain
+        ring.drain(1, entry -> System.out.println("drained " + entry)); // drained a
+        ring.drain(10, entry -> System.out.println("drained " + entry)); // drained b
+
+        System.out.println(ring.add("late", 1_050, 5)); // should be false, already expired
+    }
+}
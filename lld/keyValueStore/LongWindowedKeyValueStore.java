@@ -0,0 +1,372 @@
+package lld.keyValueStore;
+
+import java.util.Arrays;
+
+/**
+ * WindowedKeyValueStore for long keys, with no per entry objects.
+ *
+ * Entries live in an open addressing table of parallel primitive arrays (key,
+ * value, expiry time) with linear probing and backward shift deletion. The
+ * sum and count are kept per expiry time bucket, as in ExpiryRing, so a
+ * bucket leaves the average as a whole once it has expired, up to one bucket
+ * width after its entries' exact expiry.
+ *
+ * Removing expired entries from the table follows a primitive ring buffer of
+ * (key, expiry time) pairs in put order, and setMaxExpiryPerCall caps how
+ * many one call removes; the average is exact either way. Overwriting a key
+ * leaves its old pair in the ring; when that pair comes up it no longer
+ * matches the key's current expiry time and is skipped. A put with an older
+ * timestamp than the ones before it can hold back the removal of the entries
+ * behind it in the ring, by at most one window.
+ *
+ * The table and ring only grow, so once they have reached the working size,
+ * put/get/getAverage allocate nothing. Not thread safe, like
+ * WindowedKeyValueStore.
+ */
+public class LongWindowedKeyValueStore {
+
+    private final long expiryWindowMillis;
+    private final TimeSource timeSource;
+
+    // Hash table, indexed by slot.
+    private long[] keys;
+    private long[] values;
+    private long[] expiries;
+    private boolean[] used;
+    private int mask;
+    private int occupied; // entries in the table, expired ones not removed yet included
+
+    // Expiry ring of (key, expiry time), oldest at ringHead.
+    private long[] ringKeys;
+    private long[] ringExpiries;
+    private int ringHead;
+    private int ringSize;
+
+    // Sum and count of the live values per expiry time bucket, indexed by tick.
+    private final long granularityMillis;
+    private final long[] bucketTicks;
+    private final long[] bucketSums;
+    private final long[] bucketCounts;
+    private long retiredUpTo = Long.MIN_VALUE; // every tick below this has left the totals
+
+    private long sum;
+    private long count;
+    private int maxExpiryPerCall = Integer.MAX_VALUE;
+
+    public LongWindowedKeyValueStore(long expiryWindowMillis) {
+        this(expiryWindowMillis, 1024, TimeSource.SYSTEM);
+    }
+
+    // expectedKeys sizes the table and ring up front, so they never grow in steady state.
+    public LongWindowedKeyValueStore(long expiryWindowMillis, int expectedKeys) {
+        this(expiryWindowMillis, expectedKeys, TimeSource.SYSTEM);
+    }
+
+    public LongWindowedKeyValueStore(long expiryWindowMillis, int expectedKeys, TimeSource timeSource) {
+        this.expiryWindowMillis = expiryWindowMillis;
+        this.timeSource = timeSource;
+        this.granularityMillis = Math.max(1, expiryWindowMillis / 1024);
+        // A window of ticks, plus the one being filled and the one retiring.
+        int slots = (int) ((expiryWindowMillis + granularityMillis - 1) / granularityMillis + 2);
+        this.bucketTicks = new long[slots];
+        this.bucketSums = new long[slots];
+        this.bucketCounts = new long[slots];
+        Arrays.fill(bucketTicks, Long.MIN_VALUE);
+
+        // Keep the load factor at or below 0.5 so probe chains stay short.
+        int tableSize = Integer.highestOneBit(Math.max(2, expectedKeys * 2 - 1)) << 1;
+        allocateTable(tableSize);
+        this.ringKeys = new long[tableSize];
+        this.ringExpiries = new long[tableSize];
+    }
+
+    // Stores the key with the given value and current time
+    public void put(long key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Stores the key with the given value as of the given time, a timestamp
+    // ahead of the time source counts as now
+    public void put(long key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+        long now = timeSource.currentTimeMillis();
+        clearExpiredValues(now);
+
+        long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+        int slot = findSlot(key);
+        if (expiryTime < now || isRetired(expiryTime) || (used[slot] && expiries[slot] > expiryTime)) {
+            // Already expired, or older than the value we have.
+            return;
+        }
+        if (used[slot]) {
+            // A value whose bucket retired is already out of the totals.
+            if (!isRetired(expiries[slot])) {
+                addToBucket(expiries[slot], -values[slot], -1);
+            }
+        } else {
+            if (occupied + 1 > (mask + 1) / 2) {
+                resize();
+                slot = findSlot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            occupied++;
+        }
+        values[slot] = value;
+        expiries[slot] = expiryTime;
+        addToBucket(expiryTime, value, 1);
+
+        offerRing(key, expiryTime);
+    }
+
+    // Retrieves the value if not expired, otherwise returns -1
+    public long get(long key) {
+        int slot = findSlot(key);
+        if (!used[slot]) {
+            return -1;
+        }
+
+        long now = timeSource.currentTimeMillis();
+        if (expiries[slot] < now) {
+            // Evict expired entries on get
+            clearExpiredValues(now);
+            return -1;
+        }
+        return values[slot];
+    }
+
+    // Returns the average of all non-expired values
+    public double getAverage() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    // Number of values in the average
+    public int size() {
+        return (int) count;
+    }
+
+    // Caps the expired entries one call removes from the table, the average stays exact
+    public void setMaxExpiryPerCall(int maxExpiryPerCall) {
+        if (maxExpiryPerCall <= 0) {
+            throw new IllegalArgumentException("maxExpiryPerCall must be positive");
+        }
+        this.maxExpiryPerCall = maxExpiryPerCall;
+    }
+
+    // Removes every expired entry now, for callers that bound the per call work
+    public void cleanUp() {
+        long now = timeSource.currentTimeMillis();
+        retire(now);
+        removeRetired(Integer.MAX_VALUE);
+    }
+
+    private void clearExpiredValues(long now) {
+        retire(now);
+        removeRetired(maxExpiryPerCall);
+    }
+
+    // Takes every bucket that ends at or before now out of the totals, at most one step per bucket.
+    private void retire(long now) {
+        long limit = Math.floorDiv(now, granularityMillis);
+        if (limit <= retiredUpTo) {
+            return;
+        }
+        long from = Math.max(retiredUpTo, limit - bucketTicks.length);
+        for (long tick = from; tick < limit; tick++) {
+            int bucket = bucket(tick);
+            if (bucketTicks[bucket] < limit && bucketCounts[bucket] != 0) {
+                sum -= bucketSums[bucket];
+                count -= bucketCounts[bucket];
+                bucketSums[bucket] = 0;
+                bucketCounts[bucket] = 0;
+            }
+        }
+        retiredUpTo = limit;
+    }
+
+    // Removes up to maxEntries entries of retired buckets from the table, in put order.
+    private void removeRetired(int maxEntries) {
+        int ringMask = ringKeys.length - 1;
+        for (int removed = 0; removed < maxEntries && ringSize > 0 && isRetired(ringExpiries[ringHead]); removed++) {
+            long key = ringKeys[ringHead];
+            long expiryTime = ringExpiries[ringHead];
+            ringHead = (ringHead + 1) & ringMask;
+            ringSize--;
+
+            int slot = findSlot(key);
+            // Skip pairs left behind by an overwrite.
+            if (used[slot] && expiries[slot] == expiryTime) {
+                occupied--;
+                deleteSlot(slot);
+            }
+        }
+    }
+
+    private void addToBucket(long expiryTime, long value, long delta) {
+        long tick = Math.floorDiv(expiryTime, granularityMillis);
+        int bucket = bucket(tick);
+        if (bucketTicks[bucket] != tick) {
+            bucketTicks[bucket] = tick; // the previous tick of the bucket has retired
+            bucketSums[bucket] = 0;
+            bucketCounts[bucket] = 0;
+        }
+        bucketSums[bucket] += value;
+        bucketCounts[bucket] += delta;
+        sum += value;
+        count += delta;
+    }
+
+    private boolean isRetired(long expiryTime) {
+        return Math.floorDiv(expiryTime, granularityMillis) < retiredUpTo;
+    }
+
+    private int bucket(long tick) {
+        return (int) Math.floorMod(tick, (long) bucketTicks.length);
+    }
+
+    private void offerRing(long key, long expiryTime) {
+        if (ringSize == ringKeys.length) {
+            growRing();
+        }
+        int tail = (ringHead + ringSize) & (ringKeys.length - 1);
+        ringKeys[tail] = key;
+        ringExpiries[tail] = expiryTime;
+        ringSize++;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would go.
+     */
+    private int findSlot(long key) {
+        int slot = spread(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe chains intact without tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int probe = slot;
+        while (true) {
+            probe = (probe + 1) & mask;
+            if (!used[probe]) {
+                break;
+            }
+            int home = spread(keys[probe]) & mask;
+            // Move the entry into the hole unless its home lies between the hole and the probe.
+            if (((probe - home) & mask) >= ((probe - hole) & mask)) {
+                keys[hole] = keys[probe];
+                values[hole] = values[probe];
+                expiries[hole] = expiries[probe];
+                hole = probe;
+            }
+        }
+        used[hole] = false;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        long[] oldExpiries = expiries;
+        boolean[] oldUsed = used;
+
+        allocateTable(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = findSlot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                expiries[slot] = oldExpiries[i];
+            }
+        }
+    }
+
+    private void allocateTable(int tableSize) {
+        keys = new long[tableSize];
+        values = new long[tableSize];
+        expiries = new long[tableSize];
+        used = new boolean[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private void growRing() {
+        long[] newKeys = new long[ringKeys.length * 2];
+        long[] newExpiries = new long[ringKeys.length * 2];
+        for (int i = 0; i < ringSize; i++) {
+            int index = (ringHead + i) & (ringKeys.length - 1);
+            newKeys[i] = ringKeys[index];
+            newExpiries[i] = ringExpiries[index];
+        }
+        ringKeys = newKeys;
+        ringExpiries = newExpiries;
+        ringHead = 0;
+    }
+
+    private static int spread(long key) {
+        // Finalizer of a 64 bit hash, sequential ids spread over the whole table.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Expiry window: 1.5 sec
+        LongWindowedKeyValueStore store = new LongWindowedKeyValueStore(1500);
+
+        store.put(1, 10); // T
+        store.put(2, 20); // T
+        store.put(3, 30); // T
+        System.out.println("Average at T: " + store.getAverage()); // Expected: 20.0
+
+        Thread.sleep(1_000); // T + 1s
+        store.put(4, 40);
+        store.put(1, 50); // overwrites key 1, its old ring pair will be skipped
+        System.out.println("Average at T + 1s: " + store.getAverage()); // Expected: (20 + 30 + 40 + 50) / 4 = 35.0
+
+        Thread.sleep(1_000); // T + 2s, keys 2 and 3 expired
+        System.out.println("Average at T + 2s: " + store.getAverage()); // Expected: (40 + 50) / 2 = 45.0
+        System.out.println("get value of 1 " + store.get(1)); // 50
+        System.out.println("get value of 2 " + store.get(2)); // -1
+
+        // Steady state churn allocates nothing.
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+                .getThreadMXBean();
+        LongWindowedKeyValueStore metrics = new LongWindowedKeyValueStore(50, 100_000);
+        long deadline = System.currentTimeMillis() + 200; // warm up past one window
+        for (long i = 0; System.currentTimeMillis() < deadline; i++) {
+            metrics.put(i % 50_000, i);
+        }
+        long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        double average = 0;
+        for (long i = 0; i < 5_000_000; i++) {
+            metrics.put(i % 50_000, i);
+            average += metrics.get(i % 1_000) + metrics.getAverage();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        System.out.println("bytes allocated by 5M put/get/getAverage: " + allocated + " (sink " + (long) average % 10 + ")");
+        // 0, or a few hundred bytes the JVM allocates on this thread while compiling
+
+        // A burst followed by idle time: the first put afterwards removes the whole burst unless capped.
+        for (boolean capped : new boolean[] {false, true}) {
+            LongWindowedKeyValueStore burst = new LongWindowedKeyValueStore(200, 500_000);
+            if (capped) {
+                burst.setMaxExpiryPerCall(256);
+            }
+            for (long i = 0; i < 500_000; i++) {
+                burst.put(i, i);
+            }
+            Thread.sleep(600); // the whole burst expires
+            long begin = System.nanoTime();
+            burst.put(-1, 1);
+            System.out.printf("first put after the burst expired, %s: %.2fms, average %.1f%n",
+                    capped ? "capped" : "uncapped", (System.nanoTime() - begin) / 1e6, burst.getAverage());
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package lld.keyValueStore;
+
+import java.util.*;
+
+/**
+ * One key value store answering the average over several windows at once,
+ * e.g. 1s, 1m, 15m and 1h, instead of one WindowedKeyValueStore per window.
+ *
+ * Every key is stored once, with its value and put time. The windows share a
+ * hierarchy of rollups: level i is a ring of time buckets for window i, each
+ * bucket holding the sum and count of the values put in it. New values go into
+ * level 0. When a bucket of level i falls out of window i it leaves that
+ * window's total and folds into the level i + 1 bucket that contains it, down
+ * to the last level, where it is dropped. Level i + 1 buckets are a whole
+ * number of level i buckets wide, so a fold never splits a bucket.
+ *
+ * Window i's total is the sum of levels 0 to i. It changes on a put, on an
+ * overwrite and when a bucket leaves window i, so every average is O(1) and
+ * memory is one entry per key plus about 1024 buckets per window, however
+ * many windows there are. A value leaves a window up to one bucket width
+ * (about window / 1024) after its exact expiry, as in the other stores, and
+ * a late event counts in every window whose bucket for it has not left yet.
+ *
+ * All operations lock the store.
+ */
+public class MultiWindowKeyValueStore {
+
+    private static class Cache {
+        private final String key;
+        private final long value;
+        private final long time;
+
+        Cache(final String key, final long value, final long time) {
+            this.key = key;
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Ring of (sum, count) buckets of one level, indexed by put time.
+     */
+    private static class Level {
+        private final long windowMillis;
+        private final long granularityMillis;
+        private final long[] ticks;
+        private final long[] sums;
+        private final long[] counts;
+        private long retiredUpTo = Long.MIN_VALUE; // every tick below this has left the level
+
+        Level(final long windowMillis, final long granularityMillis) {
+            this.windowMillis = windowMillis;
+            this.granularityMillis = granularityMillis;
+            // A window of ticks, plus the one being filled and the one leaving.
+            int slots = (int) ((windowMillis + granularityMillis - 1) / granularityMillis + 2);
+            this.ticks = new long[slots];
+            this.sums = new long[slots];
+            this.counts = new long[slots];
+            Arrays.fill(ticks, Long.MIN_VALUE);
+        }
+
+        void add(long tick, long sum, long count) {
+            int slot = slot(tick);
+            if (ticks[slot] != tick) {
+                ticks[slot] = tick; // the previous tick of the slot has already left
+                sums[slot] = 0;
+                counts[slot] = 0;
+            }
+            sums[slot] += sum;
+            counts[slot] += count;
+        }
+
+        int slot(long tick) {
+            return (int) Math.floorMod(tick, (long) ticks.length);
+        }
+    }
+
+    private final long[] windows;
+    private final Level[] levels;
+    private final long[] sums;   // per window, levels 0 to i
+    private final long[] counts; // per window, levels 0 to i
+    private final TimeSource timeSource;
+    private final Map<String, Cache> keyValueStore = new HashMap<>();
+    // Removes keys from the map once their value has left the last level.
+    private final ExpiryRing<Cache> expiryRing;
+    // The ring runs this far behind the clock, so its buckets retire when the last level's do.
+    private final long ringLag;
+
+    public MultiWindowKeyValueStore(long... windowsMillis) {
+        this(TimeSource.SYSTEM, windowsMillis);
+    }
+
+    public MultiWindowKeyValueStore(TimeSource timeSource, long... windowsMillis) {
+        if (windowsMillis.length == 0) {
+            throw new IllegalArgumentException("at least one window is needed");
+        }
+        long[] sorted = windowsMillis.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] <= 0 || (i > 0 && sorted[i] == sorted[i - 1])) {
+                throw new IllegalArgumentException("windows must be positive and distinct: "
+                        + Arrays.toString(windowsMillis));
+            }
+        }
+
+        this.windows = sorted;
+        this.levels = new Level[sorted.length];
+        long granularity = 1;
+        for (int i = 0; i < sorted.length; i++) {
+            // About window / 1024, rounded to a multiple of the finer level.
+            granularity = Math.max(1, sorted[i] / 1024 / granularity) * granularity;
+            levels[i] = new Level(sorted[i], granularity);
+        }
+        this.sums = new long[sorted.length];
+        this.counts = new long[sorted.length];
+        this.timeSource = timeSource;
+        long longest = sorted[sorted.length - 1];
+        // granularity is the last level's now.
+        this.expiryRing = new ExpiryRing<>(longest, granularity);
+        this.ringLag = longest % granularity;
+    }
+
+    // Stores the key with the given value and current time
+    public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Stores the key with the given value as of the given time, a timestamp
+    // ahead of the time source counts as now
+    public synchronized void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+        long now = timeSource.currentTimeMillis();
+        advance(now);
+
+        long time = Math.min(timestamp, now);
+        long longest = windows[windows.length - 1];
+        Cache oldCache = keyValueStore.get(key);
+        if (time + longest < now || expiryRing.isRetired(removalTime(time))
+                || (oldCache != null && oldCache.time > time)) {
+            // Out of every window, or older than the value we have.
+            return;
+        }
+
+        if (oldCache != null) {
+            place(oldCache.time, -oldCache.value, -1);
+            expiryRing.remove(removalTime(oldCache.time), 0);
+        }
+        Cache newCache = new Cache(key, value, time);
+        keyValueStore.put(key, newCache);
+        place(time, value, 1);
+        expiryRing.add(newCache, removalTime(time), 0);
+    }
+
+    // Retrieves the value if it is inside the longest window, otherwise returns -1
+    public synchronized long get(String key) {
+        Cache cache = keyValueStore.get(key);
+        if (cache == null || cache.time + windows[windows.length - 1] < timeSource.currentTimeMillis()) {
+            return -1;
+        }
+        return cache.value;
+    }
+
+    // Returns the average of the values put in the last windowMillis, one of the configured windows
+    public synchronized double getAverage(long windowMillis) {
+        int window = Arrays.binarySearch(windows, windowMillis);
+        if (window < 0) {
+            throw new IllegalArgumentException("not a configured window: " + windowMillis);
+        }
+        advance(timeSource.currentTimeMillis());
+        return counts[window] == 0 ? 0.0 : (double) sums[window] / counts[window];
+    }
+
+    // Averages of every window, shortest first
+    public synchronized double[] getAverages() {
+        advance(timeSource.currentTimeMillis());
+        double[] averages = new double[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            averages[i] = counts[i] == 0 ? 0.0 : (double) sums[i] / counts[i];
+        }
+        return averages;
+    }
+
+    public synchronized int size() {
+        return keyValueStore.size();
+    }
+
+    /**
+     * Adds sum and count at the level currently holding values put at the
+     * given time, and to the totals of that level's window and every longer
+     * one. Negative amounts take an overwritten value back out. A value older
+     * than the longest window is in no total.
+     */
+    private void place(long time, long sum, long count) {
+        for (int i = 0; i < levels.length; i++) {
+            Level level = levels[i];
+            long tick = Math.floorDiv(time, level.granularityMillis);
+            if (tick >= level.retiredUpTo) {
+                level.add(tick, sum, count);
+                for (int window = i; window < windows.length; window++) {
+                    sums[window] += sum;
+                    counts[window] += count;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves every bucket that has left its window down one level, shortest
+     * window first, so a bucket can travel several levels in one call.
+     */
+    private void advance(long now) {
+        for (int i = 0; i < levels.length; i++) {
+            Level level = levels[i];
+            if (now < Long.MIN_VALUE + level.windowMillis) {
+                continue; // an event time source before its first event
+            }
+            // Bucket k leaves once all of it is older than the window: (k + 1) * granularity + window <= now.
+            long limit = Math.floorDiv(now - level.windowMillis, level.granularityMillis);
+            if (limit <= level.retiredUpTo) {
+                continue;
+            }
+
+            long from = Math.max(level.retiredUpTo, limit - level.ticks.length);
+            for (long tick = from; tick < limit; tick++) {
+                int slot = level.slot(tick);
+                if (level.ticks[slot] >= limit || level.counts[slot] == 0) {
+                    continue;
+                }
+                long sum = level.sums[slot];
+                long count = level.counts[slot];
+                level.sums[slot] = 0;
+                level.counts[slot] = 0;
+                sums[i] -= sum;
+                counts[i] -= count;
+                if (i + 1 < levels.length) {
+                    // Still in the longer windows' totals, only its level changes.
+                    Level next = levels[i + 1];
+                    long nextTick = Math.floorDiv(level.ticks[slot] * level.granularityMillis, next.granularityMillis);
+                    if (nextTick >= next.retiredUpTo) {
+                        next.add(nextTick, sum, count);
+                    } else {
+                        cascade(i + 1, level.ticks[slot] * level.granularityMillis, sum, count);
+                    }
+                }
+            }
+            level.retiredUpTo = limit;
+        }
+
+        if (now >= Long.MIN_VALUE + ringLag) {
+            expiryRing.retire(now - ringLag, (sum, count) -> {
+            });
+        }
+        expiryRing.drain(Integer.MAX_VALUE, cache -> keyValueStore.remove(cache.key, cache));
+    }
+
+    /**
+     * Where a value put at the given time goes in the expiry ring. The last
+     * level drops the bucket of time once (bucket + 1) * granularity + longest
+     * window <= now, and the ring, running ringLag behind, retires this time
+     * at that same moment. A key removed any earlier would still have its
+     * value in the total and be counted again by its next put.
+     */
+    private long removalTime(long time) {
+        long granularity = levels[levels.length - 1].granularityMillis;
+        return Math.floorDiv(time, granularity) * granularity + windows[windows.length - 1] - ringLag;
+    }
+
+    // A folded bucket whose place in the next level has left already: out of that window too, keep going.
+    private void cascade(int from, long time, long sum, long count) {
+        for (int i = from; i < levels.length; i++) {
+            Level level = levels[i];
+            long tick = Math.floorDiv(time, level.granularityMillis);
+            if (tick >= level.retiredUpTo) {
+                level.add(tick, sum, count);
+                return;
+            }
+            sums[i] -= sum;
+            counts[i] -= count;
+        }
+    }
+
+    public static void main(String[] args) {
+        long second = 1_000;
+        long minute = 60 * second;
+        long[] windows = {second, minute, 15 * minute, 60 * minute};
+        String[] keys = new String[50_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+
+        // Four hours of events replayed in event time, against one WindowedKeyValueStore per window.
+        for (int round = 0; round < 2; round++) {
+            // First round is warm up.
+            MultiWindowKeyValueStore multi = new MultiWindowKeyValueStore(new EventTimeSource(), windows);
+            Random random = new Random(7);
+            long t = 1_700_000_000_000L;
+            long begin = System.nanoTime();
+            for (int i = 0; i < 2_000_000; i++) {
+                t += random.nextInt(15);
+                multi.put(keys[random.nextInt(keys.length)], random.nextInt(1_000), t);
+            }
+            long multiMillis = (System.nanoTime() - begin) / 1_000_000;
+
+            EventTimeSource eventTime = new EventTimeSource();
+            WindowedKeyValueStore[] singles = new WindowedKeyValueStore[windows.length];
+            for (int i = 0; i < windows.length; i++) {
+                singles[i] = new WindowedKeyValueStore(windows[i], eventTime);
+            }
+            random = new Random(7);
+            t = 1_700_000_000_000L;
+            begin = System.nanoTime();
+            for (int i = 0; i < 2_000_000; i++) {
+                t += random.nextInt(15);
+                String key = keys[random.nextInt(keys.length)];
+                long value = random.nextInt(1_000);
+                for (WindowedKeyValueStore single : singles) {
+                    single.put(key, value, t);
+                }
+            }
+            long singlesMillis = (System.nanoTime() - begin) / 1_000_000;
+
+            if (round == 1) {
+                double[] averages = multi.getAverages();
+                for (int i = 0; i < windows.length; i++) {
+                    System.out.printf("window %7dms: multi %.3f, single store %.3f%n", windows[i], averages[i],
+                            singles[i].getAverage());
+                }
+                // Equal where the window is a multiple of the bucket width, otherwise within one bucket of each other
+                System.out.println("multi-window store " + multiMillis + "ms, four stores " + singlesMillis + "ms, "
+                        + multi.size() + " keys stored once");
+            }
+        }
+
+        MultiWindowKeyValueStore store = new MultiWindowKeyValueStore(windows);
+        try {
+            store.getAverage(30 * second);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage()); // not a configured window: 30000
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package lld.keyValueStore;
+
+/**
+ * Decides which versions of a sub key nested_Key_Value_Store keeps. The store
+ * calls compact on one VersionChain at a time, when dueAt says there is
+ * something to drop, so the work is spread over writes instead of done in
+ * one pass over the store.
+ *
+ * Time is the store's clock, the highest timestamp put so far. Every policy
+ * keeps the newest version, and the policies that cut by time keep the
+ * version in force at the cut too, so get is exact at every timestamp from
+ * the oldest version kept on.
+ */
+interface RetentionPolicy {
+
+    // dueAt value for a chain that can be compacted right away.
+    long NOW = Long.MIN_VALUE + 1;
+
+    /**
+     * Drops the versions the policy does not keep as of store time now.
+     *
+     * @return number of versions dropped.
+     */
+    int compact(VersionChain chain, int now);
+
+    /**
+     * Store time from which compact has something to drop, NOW if it already
+     * has, Long.MAX_VALUE if only new versions can change that.
+     */
+    long dueAt(VersionChain chain);
+
+    // Keeps the count newest versions
+    static RetentionPolicy keepLast(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        return new RetentionPolicy() {
+            @Override
+            public int compact(VersionChain chain, int now) {
+                int drop = Math.max(0, chain.size() - count);
+                chain.dropFirst(drop);
+                return drop;
+            }
+
+            @Override
+            public long dueAt(VersionChain chain) {
+                return chain.size() > count ? NOW : Long.MAX_VALUE;
+            }
+        };
+    }
+
+    // Keeps the versions needed to answer get for the last maxAge of store time
+    static RetentionPolicy keepNewerThan(int maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must not be negative");
+        }
+        return new RetentionPolicy() {
+            @Override
+            public int compact(VersionChain chain, int now) {
+                // Everything before the version in force at the horizon.
+                int drop = Math.max(0, chain.floorIndex(horizon(now)));
+                chain.dropFirst(drop);
+                return drop;
+            }
+
+            @Override
+            public long dueAt(VersionChain chain) {
+                // The oldest version goes once the horizon reaches the second one.
+                return chain.size() < 2 ? Long.MAX_VALUE : (long) chain.timestampAt(1) + maxAge;
+            }
+
+            private int horizon(int now) {
+                return (int) Math.max(Integer.MIN_VALUE, (long) now - maxAge);
+            }
+        };
+    }
+
+    /**
+     * Keeps the newest version of every interval of store time, so get is
+     * exact at the end of each interval and the history shrinks to one
+     * version per interval.
+     */
+    static RetentionPolicy downsample(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        return new RetentionPolicy() {
+            @Override
+            public int compact(VersionChain chain, int now) {
+                // Only the versions put since the last compaction and their older neighbour can share an interval.
+                int from = Math.max(0, chain.dirtyFrom() - 1);
+                int last = chain.size() - 1;
+                return chain.removeIf(from, index -> index < last
+                        && bucket(chain.timestampAt(index)) == bucket(chain.timestampAt(index + 1)));
+            }
+
+            @Override
+            public long dueAt(VersionChain chain) {
+                return chain.dirtyFrom() < chain.size() && chain.size() > 1 ? NOW : Long.MAX_VALUE;
+            }
+
+            private int bucket(int timestamp) {
+                return Math.floorDiv(timestamp, interval);
+            }
+        };
+    }
+}
@@ -0,0 +1,380 @@
+package lld.keyValueStore;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Windowed key value store without a global lock.
+ *
+ * Keys are hashed to independent shards. Every shard has its own map, its own
+ * ExpiryRing and its own sum and count under the shard's lock, so writers on
+ * different shards never touch the same memory. Within a shard it works like
+ * WindowedKeyValueStoreConcurrent: expired buckets leave the sum and count
+ * as a whole, so the average is exact (to one bucket width) right away, and
+ * removing their entries from the map is capped per call by
+ * setMaxExpiryPerCall and left to later calls or to the reaper. The ring
+ * files entries by expiry time, so the order writers of a shard take the
+ * lock in does not matter.
+ *
+ * get reads the map without a lock. getAverage locks one shard at a time and
+ * adds them up, so it is not a point in time snapshot: a put racing with it
+ * may or may not be counted.
+ */
+public class ShardedWindowedKeyValueStore implements AutoCloseable {
+
+    // Entries the background reaper removes per shard lock acquisition.
+    private static final int REAPER_CHUNK = 4096;
+
+    private static class Cache {
+        private final String key;
+        private final long value;
+        private final long expiringTime;
+
+        Cache(final String key, final long value, final long expiryTime) {
+            this.key = key;
+            this.value = value;
+            this.expiringTime = expiryTime;
+        }
+    }
+
+    // Everything but the map is guarded by the shard itself.
+    private static class Shard {
+        private final ConcurrentHashMap<String, Cache> keyValueStore = new ConcurrentHashMap<>();
+        private final ExpiryRing<Cache> expiryRing;
+        private long sum;
+        private long count;
+        private final ExpiryRing.Retirer retirer = (bucketSum, bucketCount) -> {
+            sum -= bucketSum;
+            count -= bucketCount;
+        };
+        private final Consumer<Cache> remover = cache -> keyValueStore.remove(cache.key, cache);
+
+        Shard(long expiryWindowMillis) {
+            this.expiryRing = new ExpiryRing<>(expiryWindowMillis);
+        }
+
+        // Holds the shard's lock.
+        void put(String key, long value, long expiryTime, long now) {
+            Cache oldCache = keyValueStore.get(key);
+            if (expiryTime < now || expiryRing.isRetired(expiryTime)
+                    || (oldCache != null && oldCache.expiringTime > expiryTime)) {
+                // Already expired, or older than the value we have. Once the clock has gone
+                // back, a bucket can retire ahead of it, what would land there is expired too.
+                return;
+            }
+
+            Cache newCache = new Cache(key, value, expiryTime);
+            keyValueStore.put(key, newCache);
+            // An entry whose bucket retired is already out of the sum, it only waits for removal.
+            if (oldCache != null && !expiryRing.isRetired(oldCache.expiringTime)) {
+                sum -= oldCache.value;
+                count--;
+                expiryRing.remove(oldCache.expiringTime, oldCache.value);
+            }
+            sum += value;
+            count++;
+            expiryRing.add(newCache, expiryTime, value);
+        }
+
+        long get(String key, long now) {
+            Cache cache = keyValueStore.get(key);
+            if (cache == null) {
+                return -1;
+            }
+            if (cache.expiringTime < now) {
+                synchronized (this) {
+                    // Only if it was not replaced meanwhile. The ring entry stays and is skipped later.
+                    if (keyValueStore.remove(key, cache) && !expiryRing.isRetired(cache.expiringTime)) {
+                        sum -= cache.value;
+                        count--;
+                        expiryRing.remove(cache.expiringTime, cache.value);
+                    }
+                }
+                return -1;
+            }
+            return cache.value;
+        }
+
+        /**
+         * Retires the expired buckets and removes at most maxEntries of their
+         * entries from the map. Holds the shard's lock.
+         *
+         * @return number of entries removed.
+         */
+        int clearExpiredValues(long now, int maxEntries) {
+            expiryRing.retire(now, retirer);
+            return expiryRing.drain(maxEntries, remover);
+        }
+    }
+
+    private final long expiryWindowMillis;
+    private final TimeSource timeSource;
+    private final Shard[] shards;
+    private final int shardMask;
+    private volatile int maxExpiryPerCall = Integer.MAX_VALUE;
+    private ScheduledExecutorService reaper;
+
+    public ShardedWindowedKeyValueStore(long expiryWindowMillis) {
+        this(expiryWindowMillis, TimeSource.SYSTEM);
+    }
+
+    public ShardedWindowedKeyValueStore(long expiryWindowMillis, TimeSource timeSource) {
+        this(expiryWindowMillis, Runtime.getRuntime().availableProcessors() * 4, timeSource);
+    }
+
+    // shardCount is rounded up to a power of two.
+    public ShardedWindowedKeyValueStore(long expiryWindowMillis, int shardCount) {
+        this(expiryWindowMillis, shardCount, TimeSource.SYSTEM);
+    }
+
+    public ShardedWindowedKeyValueStore(long expiryWindowMillis, int shardCount, TimeSource timeSource) {
+        int count = Integer.highestOneBit(Math.max(1, shardCount));
+        if (count < shardCount) {
+            count <<= 1;
+        }
+
+        this.expiryWindowMillis = expiryWindowMillis;
+        this.timeSource = timeSource;
+        this.shards = new Shard[count];
+        this.shardMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(expiryWindowMillis);
+        }
+    }
+
+    // Caps the expired entries a put/getAverage removes from each shard's map. The
+    // average is exact either way, the rest is left to later calls or the reaper.
+    public void setMaxExpiryPerCall(int maxExpiryPerCall) {
+        if (maxExpiryPerCall <= 0) {
+            throw new IllegalArgumentException("maxExpiryPerCall must be positive");
+        }
+        this.maxExpiryPerCall = maxExpiryPerCall;
+    }
+
+    // Starts a daemon thread that expires entries every periodMillis, so memory
+    // is freed without traffic and callers after an idle period find no backlog.
+    public synchronized void startReaper(long periodMillis) {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sharded-store-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::cleanUp, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Expires everything that is due, shard by shard in chunks so writers get the lock in between.
+    public void cleanUp() {
+        for (Shard shard : shards) {
+            while (true) {
+                synchronized (shard) {
+                    if (shard.clearExpiredValues(timeSource.currentTimeMillis(), REAPER_CHUNK) < REAPER_CHUNK) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
+    }
+
+    // Stores the key with the given value and current time
+    public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Stores the value as of the given time, a timestamp ahead of the time source counts as now.
+    public void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+        Shard shard = shardFor(key);
+        synchronized (shard) {
+            long now = timeSource.currentTimeMillis();
+            shard.clearExpiredValues(now, maxExpiryPerCall);
+            shard.put(key, value, Math.min(timestamp, now) + expiryWindowMillis, now);
+        }
+    }
+
+    // Stores a batch with the current time
+    public void putAll(Map<String, Long> entries) {
+        putAll(entries, timeSource.currentTimeMillis());
+    }
+
+    // Stores a batch as of the given time, with one lock acquisition and one expiry pass per shard
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void putAll(Map<String, Long> entries, long timestamp) {
+        timeSource.observe(timestamp);
+        List<Map.Entry<String, Long>>[] batches = new List[shards.length];
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            int index = shardIndex(entry.getKey());
+            if (batches[index] == null) {
+                batches[index] = new ArrayList<>();
+            }
+            batches[index].add(entry);
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            if (batches[i] == null) {
+                continue;
+            }
+            Shard shard = shards[i];
+            synchronized (shard) {
+                long now = timeSource.currentTimeMillis();
+                shard.clearExpiredValues(now, maxExpiryPerCall);
+                long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+                for (Map.Entry<String, Long> entry : batches[i]) {
+                    shard.put(entry.getKey(), entry.getValue(), expiryTime, now);
+                }
+            }
+        }
+    }
+
+    // Retrieves the value if not expired, otherwise returns -1
+    public long get(String key) {
+        return shardFor(key).get(key, timeSource.currentTimeMillis());
+    }
+
+    // Values of the keys that are present and not expired, missing keys are left out
+    public Map<String, Long> getAll(Collection<String> keys) {
+        long now = timeSource.currentTimeMillis();
+        Map<String, Long> values = new HashMap<>();
+        for (String key : keys) {
+            long value = shardFor(key).get(key, now);
+            if (value != -1) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    // Returns the average of all non-expired values
+    public double getAverage() {
+        long now = timeSource.currentTimeMillis();
+        long sum = 0;
+        long count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.clearExpiredValues(now, maxExpiryPerCall);
+                sum += shard.sum;
+                count += shard.count;
+            }
+        }
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    private Shard shardFor(String key) {
+        return shards[shardIndex(key)];
+    }
+
+    private int shardIndex(String key) {
+        // Spread the hash so keys with similar low bits still land on different shards.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return h & shardMask;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Expiry window: 1.5 sec
+        ShardedWindowedKeyValueStore store = new ShardedWindowedKeyValueStore(1500);
+
+        store.put("a", 10); // T
+        store.put("b", 20); // T
+        store.put("c", 30); // T
+        System.out.println("Average at T: " + store.getAverage()); // Expected: 20.0
+
+        Thread.sleep(1_000); // T + 1s
+        store.put("d", 40);
+        store.put("a", 50); // replaces a, expires later than b and c
+        System.out.println("Average at T + 1s: " + store.getAverage()); // Expected: (20 + 30 + 40 + 50) / 4 = 35.0
+
+        Thread.sleep(1_000); // T + 2s, b and c expired
+        System.out.println("Average at T + 2s: " + store.getAverage()); // Expected: (40 + 50) / 2 = 45.0
+        System.out.println("get value of a " + store.get("a")); // 50
+        System.out.println("get value of b " + store.get("b")); // -1
+
+        // Put throughput against the single lock store.
+        int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        String[] keys = new String[100_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        WindowedKeyValueStoreConcurrent locked = new WindowedKeyValueStoreConcurrent(60_000);
+        ShardedWindowedKeyValueStore sharded = new ShardedWindowedKeyValueStore(60_000);
+        for (int round = 0; round < 2; round++) {
+            // First round is warm up.
+            double lockedOps = putThroughput(threadCount, keys, locked::put);
+            double shardedOps = putThroughput(threadCount, keys, sharded::put);
+            if (round == 1) {
+                System.out.printf("%d threads: single lock %,.0f puts/sec, sharded %,.0f puts/sec%n", threadCount,
+                        lockedOps, shardedOps);
+            }
+        }
+
+        // A burst followed by idle time: getAverage afterwards pays for the whole burst
+        // unless the map cleanup is capped or the reaper already did it.
+        for (String mode : new String[] {"uncapped", "capped", "with reaper"}) {
+            try (ShardedWindowedKeyValueStore burst = new ShardedWindowedKeyValueStore(200)) {
+                if (mode.equals("capped")) {
+                    burst.setMaxExpiryPerCall(256);
+                } else if (mode.equals("with reaper")) {
+                    burst.startReaper(50);
+                }
+                for (int i = 0; i < 500_000; i++) {
+                    burst.put(keys[i % keys.length] + "-" + i, i);
+                }
+                Thread.sleep(600); // the whole burst expires
+                long begin = System.nanoTime();
+                double average = burst.getAverage();
+                System.out.printf("getAverage after the burst expired, %s: %.2fms (average %.1f)%n", mode,
+                        (System.nanoTime() - begin) / 1e6, average);
+            }
+        }
+    }
+
+    private interface Put {
+        void put(String key, long value);
+    }
+
+    private static double putThroughput(int threadCount, String[] keys, Put put) throws InterruptedException {
+        int opsPerThread = 1_000_000;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < opsPerThread; i++) {
+                    put.put(keys[random.nextInt(keys.length)], i);
+                }
+            });
+            threads[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (double) opsPerThread * threadCount * 1e9 / (System.nanoTime() - begin);
+    }
+}
@@ -0,0 +1,36 @@
+package lld.keyValueStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock used by the windowed stores to stamp entries and expire them.
+ *
+ * SYSTEM reads the wall clock on every call, CachedTimeSource trades
+ * precision for a cheaper read on the hot path, and EventTimeSource lets
+ * callers drive time with the timestamps of the events themselves.
+ *
+ * Every store treats an entry as expired once its expiry time is before the
+ * current time, so an entry expiring at exactly now is still live.
+ */
+public interface TimeSource {
+
+    // Wall clock that holds still while the system clock steps back (e.g. NTP), until it catches up.
+    TimeSource SYSTEM = new TimeSource() {
+        private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+
+        @Override
+        public long currentTimeMillis() {
+            long time = System.currentTimeMillis();
+            long previous = latest.get();
+            // Cheap read first, the clock only moves once per millisecond.
+            return time > previous ? latest.accumulateAndGet(time, Math::max) : previous;
+        }
+    };
+
+    // Current time in milliseconds, never goes backwards for a given source.
+    long currentTimeMillis();
+
+    // Called with the timestamp of every put, only event time uses it.
+    default void observe(long timestamp) {
+    }
+}
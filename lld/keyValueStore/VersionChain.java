@@ -0,0 +1,223 @@
+package lld.keyValueStore;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Versions of one sub key, as parallel arrays sorted by timestamp: int[]
+ * timestamps and String[] values. Replaces a TreeMap<Integer, String>, which
+ * costs a boxed Integer and a tree node per version.
+ *
+ * A put after the last timestamp appends in O(1) amortized, the common case
+ * when versions arrive in order. An older timestamp is found by binary search
+ * and inserted by shifting the newer versions up, and an existing timestamp
+ * gets its value replaced. Lookups are binary searches.
+ *
+ * Retention drops versions from the front in O(1): the live versions are
+ * the slice [start, start + size) of the arrays, and the gap in front is
+ * reclaimed the next time the arrays fill up. Indexes below are positions
+ * within the live versions, 0 being the oldest.
+ *
+ * Not thread safe.
+ */
+class VersionChain {
+
+    private int[] timestamps;
+    private String[] values;
+    private int start;
+    private int size;
+    // Lowest index changed by put since markClean, size if none.
+    private int dirtyFrom;
+    // When the store's compaction queue wants this chain next, see nested_Key_Value_Store.
+    long compactAt = Long.MAX_VALUE;
+
+    VersionChain() {
+        timestamps = new int[2];
+        values = new String[2];
+    }
+
+    // Stores value at timestamp, replacing the value already there if any
+    void put(int timestamp, String value) {
+        int end = start + size;
+        if (size == 0 || timestamp > timestamps[end - 1]) {
+            if (end == timestamps.length) {
+                makeRoom();
+                end = start + size;
+            }
+            timestamps[end] = timestamp;
+            values[end] = value;
+            dirtyFrom = Math.min(dirtyFrom, size);
+            size++;
+            return;
+        }
+
+        // Out of order: find its place among the older versions.
+        int index = Arrays.binarySearch(timestamps, start, end, timestamp);
+        if (index >= 0) {
+            values[index] = value;
+            dirtyFrom = Math.min(dirtyFrom, index - start);
+            return;
+        }
+        if (end == timestamps.length) {
+            makeRoom();
+            end = start + size;
+            index = Arrays.binarySearch(timestamps, start, end, timestamp);
+        }
+        int insertAt = -index - 1;
+        System.arraycopy(timestamps, insertAt, timestamps, insertAt + 1, end - insertAt);
+        System.arraycopy(values, insertAt, values, insertAt + 1, end - insertAt);
+        timestamps[insertAt] = timestamp;
+        values[insertAt] = value;
+        dirtyFrom = Math.min(dirtyFrom, insertAt - start);
+        size++;
+    }
+
+    /**
+     * @return the value of the latest version at or before timestamp, null if
+     *         there is none.
+     */
+    String floor(int timestamp) {
+        if (size == 0) {
+            return null;
+        }
+        int end = start + size;
+        // Most reads ask for the present.
+        if (timestamp >= timestamps[end - 1]) {
+            return values[end - 1];
+        }
+        int index = Arrays.binarySearch(timestamps, start, end, timestamp);
+        if (index >= 0) {
+            return values[index];
+        }
+        int before = -index - 2;
+        return before < start ? null : values[before];
+    }
+
+    // Value of the newest version, null if there is none
+    String latest() {
+        return size == 0 ? null : values[start + size - 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int timestampAt(int index) {
+        return timestamps[start + index];
+    }
+
+    /**
+     * @return index of the newest version at or before timestamp, -1 if there
+     *         is none.
+     */
+    int floorIndex(int timestamp) {
+        int index = Arrays.binarySearch(timestamps, start, start + size, timestamp);
+        return (index >= 0 ? index : -index - 2) - start;
+    }
+
+    // Drops the count oldest versions, O(1)
+    void dropFirst(int count) {
+        Arrays.fill(values, start, start + count, null);
+        start += count;
+        size -= count;
+        dirtyFrom = Math.max(0, dirtyFrom - count);
+    }
+
+    /**
+     * Drops every version from index from on that the filter selects. The
+     * filter sees the indexes as they were before the call, so it can compare
+     * a version with its neighbours.
+     *
+     * @return number of versions dropped.
+     */
+    int removeIf(int from, IntPredicate drop) {
+        int end = start + size;
+        int write = start + from;
+        for (int read = start + from; read < end; read++) {
+            if (drop.test(read - start)) {
+                continue;
+            }
+            timestamps[write] = timestamps[read];
+            values[write] = values[read];
+            write++;
+        }
+        Arrays.fill(values, write, end, null);
+        int dropped = end - write;
+        size -= dropped;
+        return dropped;
+    }
+
+    int dirtyFrom() {
+        return dirtyFrom;
+    }
+
+    // Every version is compacted up to now
+    void markClean() {
+        dirtyFrom = size;
+    }
+
+    // Moves the live versions to the front if that frees enough, grows the arrays otherwise.
+    private void makeRoom() {
+        if (start >= timestamps.length / 2) {
+            System.arraycopy(timestamps, start, timestamps, 0, size);
+            System.arraycopy(values, start, values, 0, size);
+            Arrays.fill(values, size, start + size, null);
+            start = 0;
+            return;
+        }
+        int capacity = timestamps.length + (timestamps.length >> 1) + 1;
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    public static void main(String[] args) {
+        VersionChain chain = new VersionChain();
+        chain.put(10, "a");
+        chain.put(30, "c");
+        chain.put(20, "b"); // out of order, lands between 10 and 30
+        chain.put(30, "c2"); // same timestamp, replaces c
+
+        System.out.println(chain.floor(5)); // null
+        System.out.println(chain.floor(25)); // b
+        System.out.println(chain.floor(100)); // c2
+        System.out.println(chain.size()); // 3
+
+        // Heap used by 100k sub keys with 10 versions each, appended in order.
+        int subKeys = 100_000;
+        int versions = 10;
+        String value = "value";
+        long before = usedHeap();
+        List<TreeMap<Integer, String>> trees = new ArrayList<>(subKeys);
+        for (int i = 0; i < subKeys; i++) {
+            TreeMap<Integer, String> tree = new TreeMap<>();
+            for (int t = 0; t < versions; t++) {
+                tree.put(1_000 + t, value); // outside the Integer cache, as real timestamps are
+            }
+            trees.add(tree);
+        }
+        long treeBytes = usedHeap() - before;
+        trees = null;
+
+        before = usedHeap();
+        List<VersionChain> chains = new ArrayList<>(subKeys);
+        for (int i = 0; i < subKeys; i++) {
+            VersionChain versionChain = new VersionChain();
+            for (int t = 0; t < versions; t++) {
+                versionChain.put(1_000 + t, value);
+            }
+            chains.add(versionChain);
+        }
+        long chainBytes = usedHeap() - before;
+        System.out.printf("bytes per version: TreeMap %d, VersionChain %d%n", treeBytes / (subKeys * versions),
+                chainBytes / (subKeys * versions));
+        System.out.println(chains.size());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
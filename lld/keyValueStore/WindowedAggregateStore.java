@@ -0,0 +1,487 @@
+package lld.keyValueStore;
+
+import java.util.*;
+
+/**
+ * Sliding window aggregates over a stream of (key, value) events: count,
+ * average, min, max, percentiles and the number of distinct keys.
+ *
+ * Every put is one event that stays in the window for windowMillis. Unlike the
+ * key value stores, a key put twice counts twice in the value aggregates (it
+ * is a metrics stream), and once in the distinct key count.
+ *
+ * Everything is maintained incrementally, nothing scans the live events:
+ * - the window is a ring of time buckets, as in ExpiryRing. Each bucket holds
+ *   the sum and count of its events, a log bucketed quantile histogram and a
+ *   HyperLogLog of its keys. A bucket retires as a whole, up to one bucket
+ *   width after its events' exact expiry.
+ * - min and max are kept in monotonic deques, O(1) amortized per event in
+ *   time order. A late event (put with an older timestamp) is inserted in
+ *   the middle, O(deque size).
+ * - the window's quantile histogram is a Fenwick tree. Retiring a bucket
+ *   subtracts its histogram, and a percentile is an O(log bins) rank search
+ *   with 1% relative error (a DDSketch style mapping).
+ * - distinct keys merges the live buckets' HyperLogLogs. The cost depends on
+ *   the bucket count, not the events, and the result is cached until the
+ *   window changes.
+ *
+ * All operations lock the store.
+ */
+public class WindowedAggregateStore {
+
+    // Quantile bins: value v > 0 goes to bin ceil(log(v) / log(GAMMA)), relative error ALPHA.
+    private static final double ALPHA = 0.01;
+    private static final double GAMMA = (1 + ALPHA) / (1 - ALPHA);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int POSITIVE_BINS = (int) Math.ceil(Math.log(Long.MAX_VALUE) / LOG_GAMMA) + 1;
+    // Layout: negative bins mirrored, then the zero bin, then positive bins.
+    private static final int ZERO_BIN = POSITIVE_BINS;
+    private static final int BIN_COUNT = 2 * POSITIVE_BINS + 1;
+
+    // HyperLogLog with 2^11 registers, about 2.3% standard error.
+    private static final int HLL_P = 11;
+    private static final int HLL_REGISTERS = 1 << HLL_P;
+
+    private static class Bucket {
+        private long tick = Long.MIN_VALUE;
+        private long count;
+        private long sum;
+        private int[] bins; // allocated on first use, then reused
+        private int[] touched = new int[16];
+        private int touchedCount;
+        private byte[] registers;
+        private boolean hasKeys;
+    }
+
+    /**
+     * Deque of (value, tick) pairs on a growable primitive ring.
+     */
+    private static class LongDeque {
+        private long[] values = new long[64];
+        private long[] ticks = new long[64];
+        private int head;
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long firstValue() {
+            return values[head];
+        }
+
+        long firstTick() {
+            return ticks[head];
+        }
+
+        long lastValue() {
+            return values[(head + size - 1) & (values.length - 1)];
+        }
+
+        void removeFirst() {
+            head = (head + 1) & (values.length - 1);
+            size--;
+        }
+
+        void removeLast() {
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long valueAt(int index) {
+            return values[(head + index) & (values.length - 1)];
+        }
+
+        long tickAt(int index) {
+            return ticks[(head + index) & (values.length - 1)];
+        }
+
+        void set(int index, long value, long tick) {
+            values[(head + index) & (values.length - 1)] = value;
+            ticks[(head + index) & (values.length - 1)] = tick;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        void addLast(long value, long tick) {
+            if (size == values.length) {
+                grow();
+            }
+            int index = (head + size) & (values.length - 1);
+            values[index] = value;
+            ticks[index] = tick;
+            size++;
+        }
+
+        private void grow() {
+            long[] newValues = new long[values.length * 2];
+            long[] newTicks = new long[values.length * 2];
+            for (int i = 0; i < size; i++) {
+                newValues[i] = values[(head + i) & (values.length - 1)];
+                newTicks[i] = ticks[(head + i) & (values.length - 1)];
+            }
+            values = newValues;
+            ticks = newTicks;
+            head = 0;
+        }
+    }
+
+    private final long expiryWindowMillis;
+    private final long bucketMillis;
+    private final TimeSource timeSource;
+    private final Bucket[] buckets;
+    private final long[] fenwick = new long[BIN_COUNT + 1];
+    private final LongDeque minDeque = new LongDeque(); // increasing values
+    private final LongDeque maxDeque = new LongDeque(); // decreasing values
+    private final byte[] mergedRegisters = new byte[HLL_REGISTERS];
+    private long retiredUpTo = Long.MIN_VALUE;
+    private long count;
+    private long sum;
+    private long distinctKeys;
+    private boolean distinctKeysStale;
+
+    // 64 buckets over the window.
+    public WindowedAggregateStore(long expiryWindowMillis) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 64), TimeSource.SYSTEM);
+    }
+
+    public WindowedAggregateStore(long expiryWindowMillis, TimeSource timeSource) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 64), timeSource);
+    }
+
+    // Events expire up to bucketMillis late. Fewer, wider buckets make distinct counts cheaper.
+    public WindowedAggregateStore(long expiryWindowMillis, long bucketMillis) {
+        this(expiryWindowMillis, bucketMillis, TimeSource.SYSTEM);
+    }
+
+    public WindowedAggregateStore(long expiryWindowMillis, long bucketMillis, TimeSource timeSource) {
+        if (expiryWindowMillis <= 0 || bucketMillis <= 0) {
+            throw new IllegalArgumentException("window and bucket width must be positive");
+        }
+        long slots = (expiryWindowMillis + bucketMillis - 1) / bucketMillis + 2;
+        if (slots > 1 << 16) {
+            throw new IllegalArgumentException("too many buckets, use wider buckets");
+        }
+
+        this.expiryWindowMillis = expiryWindowMillis;
+        this.bucketMillis = bucketMillis;
+        this.timeSource = timeSource;
+        this.buckets = new Bucket[(int) slots];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    // Records one event for the key with the given value at the current time
+    public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Records one event as of the given time, a timestamp ahead of the time source counts as now
+    public synchronized void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+        long now = timeSource.currentTimeMillis();
+        clearExpiredValues(now);
+
+        long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+        long tick = Math.floorDiv(expiryTime, bucketMillis);
+        if (expiryTime < now || tick < retiredUpTo) {
+            return; // already expired
+        }
+        Bucket bucket = buckets[(int) Math.floorMod(tick, (long) buckets.length)];
+        bucket.tick = tick;
+        bucket.count++;
+        bucket.sum += value;
+        count++;
+        sum += value;
+
+        int bin = bin(value);
+        if (bucket.bins == null) {
+            bucket.bins = new int[BIN_COUNT];
+        }
+        if (bucket.bins[bin]++ == 0) {
+            if (bucket.touchedCount == bucket.touched.length) {
+                bucket.touched = Arrays.copyOf(bucket.touched, bucket.touched.length * 2);
+            }
+            bucket.touched[bucket.touchedCount++] = bin;
+        }
+        fenwickAdd(bin, 1);
+
+        if (minDeque.isEmpty() || minDeque.tickAt(minDeque.size() - 1) <= tick) {
+            while (!minDeque.isEmpty() && minDeque.lastValue() >= value) {
+                minDeque.removeLast();
+            }
+            minDeque.addLast(value, tick);
+        } else {
+            insertLate(minDeque, value, tick, true);
+        }
+        if (maxDeque.isEmpty() || maxDeque.tickAt(maxDeque.size() - 1) <= tick) {
+            while (!maxDeque.isEmpty() && maxDeque.lastValue() <= value) {
+                maxDeque.removeLast();
+            }
+            maxDeque.addLast(value, tick);
+        } else {
+            insertLate(maxDeque, value, tick, false);
+        }
+
+        if (bucket.registers == null) {
+            bucket.registers = new byte[HLL_REGISTERS];
+        }
+        long hash = hash(key);
+        int register = (int) (hash >>> (64 - HLL_P));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << HLL_P) | (1L << (HLL_P - 1))) + 1);
+        if (bucket.registers[register] < rank) {
+            bucket.registers[register] = rank;
+            distinctKeysStale = true;
+        }
+        bucket.hasKeys = true;
+    }
+
+    // Number of events in the window
+    public synchronized long getCount() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return count;
+    }
+
+    // Returns the average of all non-expired values
+    public synchronized double getAverage() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    // Smallest value in the window, Long.MAX_VALUE if it is empty
+    public synchronized long getMin() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return minDeque.isEmpty() ? Long.MAX_VALUE : minDeque.firstValue();
+    }
+
+    // Largest value in the window, Long.MIN_VALUE if it is empty
+    public synchronized long getMax() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return maxDeque.isEmpty() ? Long.MIN_VALUE : maxDeque.firstValue();
+    }
+
+    /**
+     * Value at the given quantile, within 1% relative error, NaN if the window
+     * is empty.
+     *
+     * @param quantile: between 0 and 1, 0.99 for p99.
+     */
+    public synchronized double getPercentile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+        clearExpiredValues(timeSource.currentTimeMillis());
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) (quantile * (count - 1)) + 1;
+        return binValue(fenwickFind(rank));
+    }
+
+    // Approximate number of distinct keys put in the window
+    public synchronized long getDistinctKeys() {
+        clearExpiredValues(timeSource.currentTimeMillis());
+        if (!distinctKeysStale) {
+            return distinctKeys;
+        }
+
+        Arrays.fill(mergedRegisters, (byte) 0);
+        for (Bucket bucket : buckets) {
+            if (!bucket.hasKeys) {
+                continue;
+            }
+            for (int i = 0; i < HLL_REGISTERS; i++) {
+                if (bucket.registers[i] > mergedRegisters[i]) {
+                    mergedRegisters[i] = bucket.registers[i];
+                }
+            }
+        }
+
+        double inverseSum = 0;
+        int zeros = 0;
+        for (byte register : mergedRegisters) {
+            inverseSum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double m = HLL_REGISTERS;
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / inverseSum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Small range correction, linear counting.
+            estimate = m * Math.log(m / zeros);
+        }
+
+        distinctKeys = Math.round(estimate);
+        distinctKeysStale = false;
+        return distinctKeys;
+    }
+
+    private void clearExpiredValues(long now) {
+        long limit = Math.floorDiv(now, bucketMillis);
+        if (limit <= retiredUpTo) {
+            return;
+        }
+
+        // After a long pause only the last ring's worth of ticks can still hold events.
+        long from = Math.max(retiredUpTo, limit - buckets.length);
+        for (long tick = from; tick < limit; tick++) {
+            Bucket bucket = buckets[(int) Math.floorMod(tick, (long) buckets.length)];
+            if (bucket.tick < limit && bucket.count > 0) {
+                retire(bucket);
+            }
+        }
+        retiredUpTo = limit;
+
+        while (!minDeque.isEmpty() && minDeque.firstTick() < limit) {
+            minDeque.removeFirst();
+        }
+        while (!maxDeque.isEmpty() && maxDeque.firstTick() < limit) {
+            maxDeque.removeFirst();
+        }
+    }
+
+    /**
+     * Inserts an event that expires before the last one of a monotonic deque:
+     * after the entries that expire no later and are better (smaller for min),
+     * dropping the ones that expire no later and are not, and before the
+     * entries that expire after it. Nothing is inserted if one of those is at
+     * least as good, it outlives the event.
+     */
+    private static void insertLate(LongDeque deque, long value, long tick, boolean min) {
+        int size = deque.size();
+        int later = size;
+        while (later > 0 && deque.tickAt(later - 1) > tick) {
+            later--;
+        }
+        long best = deque.valueAt(later); // the best of the later ones, the deque is sorted
+        if (min ? best <= value : best >= value) {
+            return;
+        }
+        int keep = later;
+        while (keep > 0 && (min ? deque.valueAt(keep - 1) >= value : deque.valueAt(keep - 1) <= value)) {
+            keep--;
+        }
+
+        int moved = size - later;
+        if (keep < later) {
+            // Room was freed in front of the later entries, move them down.
+            for (int i = 0; i < moved; i++) {
+                deque.set(keep + 1 + i, deque.valueAt(later + i), deque.tickAt(later + i));
+            }
+            deque.truncate(keep + 1 + moved);
+        } else {
+            deque.addLast(0, 0); // one more slot, growing the ring if full
+            for (int i = moved - 1; i >= 0; i--) {
+                deque.set(later + 1 + i, deque.valueAt(later + i), deque.tickAt(later + i));
+            }
+        }
+        deque.set(keep, value, tick);
+    }
+
+    private void retire(Bucket bucket) {
+        count -= bucket.count;
+        sum -= bucket.sum;
+        for (int i = 0; i < bucket.touchedCount; i++) {
+            int bin = bucket.touched[i];
+            fenwickAdd(bin, -bucket.bins[bin]);
+            bucket.bins[bin] = 0;
+        }
+        if (bucket.hasKeys) {
+            Arrays.fill(bucket.registers, (byte) 0);
+            bucket.hasKeys = false;
+            distinctKeysStale = true;
+        }
+        bucket.touchedCount = 0;
+        bucket.count = 0;
+        bucket.sum = 0;
+    }
+
+    private static int bin(long value) {
+        if (value == 0) {
+            return ZERO_BIN;
+        }
+        int index = (int) Math.ceil(Math.log(Math.abs((double) value)) / LOG_GAMMA);
+        return value > 0 ? ZERO_BIN + 1 + index : ZERO_BIN - 1 - index;
+    }
+
+    // Representative value of a bin, within ALPHA of every value that maps to it.
+    private static double binValue(int bin) {
+        if (bin == ZERO_BIN) {
+            return 0;
+        }
+        int index = bin > ZERO_BIN ? bin - ZERO_BIN - 1 : ZERO_BIN - 1 - bin;
+        double value = 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+        return bin > ZERO_BIN ? value : -value;
+    }
+
+    private void fenwickAdd(int bin, long delta) {
+        for (int i = bin + 1; i <= BIN_COUNT; i += i & -i) {
+            fenwick[i] += delta;
+        }
+    }
+
+    // Smallest bin whose prefix count reaches rank.
+    private int fenwickFind(long rank) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(BIN_COUNT); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= BIN_COUNT && fenwick[next] < rank) {
+                position = next;
+                rank -= fenwick[next];
+            }
+        }
+        return position; // 0 based bin
+    }
+
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        // Finalizer so every bit depends on every character.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Expiry window: 2 sec in 100ms buckets
+        WindowedAggregateStore store = new WindowedAggregateStore(2_000, 100);
+
+        store.put("a", 10);
+        store.put("b", 20);
+        store.put("c", 30);
+        store.put("a", 40); // a counts twice in the values, once as a key
+        System.out.println("count " + store.getCount()); // 4
+        System.out.println("average " + store.getAverage()); // 25.0
+        System.out.println("min " + store.getMin() + " max " + store.getMax()); // min 10 max 40
+        System.out.println("distinct keys " + store.getDistinctKeys()); // 3
+
+        Thread.sleep(1_200);
+        store.put("d", 5);
+        System.out.println("min " + store.getMin()); // 5
+
+        Thread.sleep(1_000); // the first four events are gone
+        System.out.println("count " + store.getCount() + " max " + store.getMax()); // count 1 max 5
+
+        // Latencies 1..100_000, one event per key.
+        WindowedAggregateStore latencies = new WindowedAggregateStore(60_000);
+        for (int i = 1; i <= 100_000; i++) {
+            latencies.put("request" + i, i);
+        }
+        System.out.printf("p50 %.0f p99 %.0f%n", latencies.getPercentile(0.5), latencies.getPercentile(0.99));
+        // p50 ~50000 p99 ~99000, within 1%
+        System.out.println("distinct keys " + latencies.getDistinctKeys()); // ~100000, within a few %
+    }
+}
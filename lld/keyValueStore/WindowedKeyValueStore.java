@@ -5,10 +5,12 @@ import java.util.*;
 public class WindowedKeyValueStore {
 
     private final long expiryWindowMillis;
+    private final TimeSource timeSource;
     private Map<String, Cache> keyValueStore;
-    private Queue<Cache> expiryQueue;
+    private ExpiryRing<Cache> expiryRing;
     private long sum;
     private long count;
+    private int maxExpiryPerCall = Integer.MAX_VALUE;
 
     private static class Cache {
         private String key;
@@ -24,31 +26,91 @@ public class WindowedKeyValueStore {
 
     // Constructor: takes expiry window in milliseconds
     public WindowedKeyValueStore(long expiryWindowMillis) {
+        this(expiryWindowMillis, TimeSource.SYSTEM);
+    }
+
+    // Constructor: expiry window in milliseconds of the given time source
+    public WindowedKeyValueStore(long expiryWindowMillis, TimeSource timeSource) {
         this.expiryWindowMillis = expiryWindowMillis;
+        this.timeSource = timeSource;
         keyValueStore = new HashMap<>();
-        expiryQueue = new LinkedList<>();
+        // Buckets instead of a FIFO queue, event time puts don't arrive in expiry order.
+        expiryRing = new ExpiryRing<>(expiryWindowMillis);
         this.sum = 0;
         this.count = 0;
     }
 
     // Stores the key with the given value and current time
     public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
 
-        long now = System.currentTimeMillis();
-        Cache newCache = new Cache(key, value, now + expiryWindowMillis);
+    // Stores the key with the given value as of the given time, a timestamp
+    // ahead of the time source counts as now
+    public void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+        long now = timeSource.currentTimeMillis();
+        clearExpiredValues(now);
+
+        long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+        Cache oldCache = keyValueStore.get(key);
+        if (expiryTime < now || expiryRing.isRetired(expiryTime)
+                || (oldCache != null && oldCache.expiringTime > expiryTime)) {
+            // Already expired, or older than the value we have. Once the clock has gone
+            // back, a bucket can retire ahead of it, what would land there is expired too.
+            return;
+        }
 
         // If key already exists, remove old value and subtract from sum and count.
-        if (keyValueStore.containsKey(key)) {
-            sum -= keyValueStore.get(key).value;
+        // An expired one waiting to be removed is already out of them.
+        if (oldCache != null && !expiryRing.isRetired(oldCache.expiringTime)) {
+            sum -= oldCache.value;
             count--;
+            expiryRing.remove(oldCache.expiringTime, oldCache.value);
         }
 
+        Cache newCache = new Cache(key, value, expiryTime);
         count++;
         sum += value;
         keyValueStore.put(key, newCache);
-        expiryQueue.offer(newCache);
+        expiryRing.add(newCache, expiryTime, value);
+    }
+
+    // Stores a batch of key value pairs with the current time, expiring once for the whole batch
+    public void putAll(Map<String, Long> entries) {
+        putAll(entries, timeSource.currentTimeMillis());
+    }
+
+    // Stores a batch of key value pairs as of the given time
+    public void putAll(Map<String, Long> entries, long timestamp) {
+        timeSource.observe(timestamp);
+        long now = timeSource.currentTimeMillis();
+        clearExpiredValues(now);
+
+        long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+        if (expiryTime < now || expiryRing.isRetired(expiryTime)) {
+            return;
+        }
 
-        clearExpiredValues();
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            long value = entry.getValue();
+            Cache oldCache = keyValueStore.get(key);
+            if (oldCache != null && oldCache.expiringTime > expiryTime) {
+                continue;
+            }
+            if (oldCache != null && !expiryRing.isRetired(oldCache.expiringTime)) {
+                sum -= oldCache.value;
+                count--;
+                expiryRing.remove(oldCache.expiringTime, oldCache.value);
+            }
+
+            Cache newCache = new Cache(key, value, expiryTime);
+            count++;
+            sum += value;
+            keyValueStore.put(key, newCache);
+            expiryRing.add(newCache, expiryTime, value);
+        }
     }
 
     // Retrieves the value if not expired, otherwise returns -1
@@ -58,30 +120,63 @@ public class WindowedKeyValueStore {
         }
 
         Cache cache = keyValueStore.get(key);
-        if (cache.expiringTime < System.currentTimeMillis()) {
+        long now = timeSource.currentTimeMillis();
+        if (cache.expiringTime < now) {
             // Evict expired entries on get
-            clearExpiredValues();
+            clearExpiredValues(now);
             return -1;
         }
 
         return cache.value;
     }
 
+    // Retrieves the values of the keys that exist and are not expired, missing keys are left out
+    public Map<String, Long> getAll(Collection<String> keys) {
+        long now = timeSource.currentTimeMillis();
+        clearExpiredValues(now);
+
+        Map<String, Long> values = new HashMap<>();
+        for (String key : keys) {
+            Cache cache = keyValueStore.get(key);
+            if (cache != null && cache.expiringTime >= now) {
+                values.put(key, cache.value);
+            }
+        }
+        return values;
+    }
+
     // Returns the average of all non-expired values
     public double getAverage() {
-        clearExpiredValues();
-        return count == 0 ? 0.0 : sum / count;
+        clearExpiredValues(timeSource.currentTimeMillis());
+        return count == 0 ? 0.0 : (double) sum / count;
     }
 
-    private void clearExpiredValues() {
-        long now = System.currentTimeMillis();
-
-        while (!expiryQueue.isEmpty() && expiryQueue.peek().expiringTime < now) {
-            Cache expiredCache = expiryQueue.poll(); // Remove from deque
-            keyValueStore.remove(expiredCache.key); // Remove from map
-            sum -= expiredCache.value;
-            count--;
+    // Caps the expired entries one call removes from the map, the average stays exact
+    public void setMaxExpiryPerCall(int maxExpiryPerCall) {
+        if (maxExpiryPerCall <= 0) {
+            throw new IllegalArgumentException("maxExpiryPerCall must be positive");
         }
+        this.maxExpiryPerCall = maxExpiryPerCall;
+    }
+
+    // Removes every expired entry now, for callers that bound the per call work
+    public void cleanUp() {
+        expiryRing.retire(timeSource.currentTimeMillis(), this::retire);
+        expiryRing.drain(Integer.MAX_VALUE, this::remove);
+    }
+
+    private void clearExpiredValues(long now) {
+        expiryRing.retire(now, this::retire);
+        expiryRing.drain(maxExpiryPerCall, this::remove);
+    }
+
+    private void retire(long bucketSum, long bucketCount) {
+        sum -= bucketSum;
+        count -= bucketCount;
+    }
+
+    private void remove(Cache expiredCache) {
+        keyValueStore.remove(expiredCache.key, expiredCache); // Only if not replaced since
     }
 
     public static void main(String[] args) throws InterruptedException {
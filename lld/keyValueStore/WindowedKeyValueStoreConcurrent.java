@@ -1,16 +1,26 @@
 package lld.keyValueStore;
 
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-public class WindowedKeyValueStoreConcurrent {
+public class WindowedKeyValueStoreConcurrent implements AutoCloseable {
+
+    // Entries the background reaper removes per lock acquisition.
+    private static final int REAPER_CHUNK = 4096;
 
     private final long expiryWindowMillis;
+    private final TimeSource timeSource;
     private final ConcurrentHashMap<String, Cache> keyValueStore;
-    private final ConcurrentLinkedQueue<Cache> expiryQueue;
+    private final ExpiryRing<Cache> expiryRing;
     private final AtomicLong sum;
     private final AtomicLong count;
     private final Object lock = new Object();
+    private final ExpiryRing.Retirer retirer;
+    private final Consumer<Cache> remover;
+    private volatile int maxExpiryPerCall = Integer.MAX_VALUE;
+    private ScheduledExecutorService reaper;
 
     private static class Cache {
         private final String key;
@@ -25,28 +35,148 @@ public class WindowedKeyValueStoreConcurrent {
     }
 
     public WindowedKeyValueStoreConcurrent(long expiryWindowMillis) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 1024), TimeSource.SYSTEM);
+    }
+
+    public WindowedKeyValueStoreConcurrent(long expiryWindowMillis, TimeSource timeSource) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 1024), timeSource);
+    }
+
+    // Entries expire up to granularityMillis late, coarser buckets make puts cheaper.
+    public WindowedKeyValueStoreConcurrent(long expiryWindowMillis, long granularityMillis, TimeSource timeSource) {
         this.expiryWindowMillis = expiryWindowMillis;
+        this.timeSource = timeSource;
         this.keyValueStore = new ConcurrentHashMap<>();
-        this.expiryQueue = new ConcurrentLinkedQueue<>();
+        this.expiryRing = new ExpiryRing<>(expiryWindowMillis, granularityMillis);
         this.sum = new AtomicLong(0);
         this.count = new AtomicLong(0);
+        this.retirer = (bucketSum, bucketCount) -> {
+            sum.addAndGet(-bucketSum);
+            count.addAndGet(-bucketCount);
+        };
+        this.remover = expiredCache -> keyValueStore.remove(expiredCache.key, expiredCache);
+    }
+
+    // Caps the expired entries a put/get/getAverage removes from the map. The
+    // average is exact either way, the rest is left to later calls or the reaper.
+    public void setMaxExpiryPerCall(int maxExpiryPerCall) {
+        if (maxExpiryPerCall <= 0) {
+            throw new IllegalArgumentException("maxExpiryPerCall must be positive");
+        }
+        this.maxExpiryPerCall = maxExpiryPerCall;
+    }
+
+    // Starts a daemon thread that expires entries every periodMillis, so memory
+    // is freed without traffic and callers after an idle period find no backlog.
+    public synchronized void startReaper(long periodMillis) {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "windowed-store-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::cleanUp, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Expires everything that is due, in chunks so writers get the lock in between.
+    public void cleanUp() {
+        while (true) {
+            synchronized (lock) {
+                expiryRing.retire(timeSource.currentTimeMillis(), retirer);
+                if (expiryRing.drain(REAPER_CHUNK, remover) < REAPER_CHUNK) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
     }
 
     public void put(String key, long value) {
-        long now = System.currentTimeMillis();
-        long expiryTime = now + expiryWindowMillis;
-        Cache newCache = new Cache(key, value, expiryTime);
+        put(key, value, timeSource.currentTimeMillis());
+    }
+
+    // Stores the value as of the given time, a timestamp ahead of the time source counts as now.
+    public void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
 
         synchronized (lock) {
-            Cache oldCache = keyValueStore.put(key, newCache);
-            if (oldCache != null) {
+            long now = timeSource.currentTimeMillis();
+            clearExpiredValues(now);
+
+            long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+            Cache oldCache = keyValueStore.get(key);
+            if (expiryTime < now || expiryRing.isRetired(expiryTime)
+                    || (oldCache != null && oldCache.expiringTime > expiryTime)) {
+                // Already expired, or older than the value we have. Once the clock has gone
+                // back, a bucket can retire ahead of it, what would land there is expired too.
+                return;
+            }
+
+            Cache newCache = new Cache(key, value, expiryTime);
+            keyValueStore.put(key, newCache);
+            // An entry whose bucket retired is already out of the sum, it only waits for removal.
+            if (oldCache != null && !expiryRing.isRetired(oldCache.expiringTime)) {
                 sum.addAndGet(-oldCache.value);
                 count.decrementAndGet();
+                expiryRing.remove(oldCache.expiringTime, oldCache.value);
             }
             sum.addAndGet(value);
             count.incrementAndGet();
-            expiryQueue.offer(newCache);
+            expiryRing.add(newCache, expiryTime, value);
+        }
+    }
+
+    // Stores a batch of key value pairs with the current time: one lock, one
+    // expiry pass and one sum/count update for the whole batch.
+    public void putAll(Map<String, Long> entries) {
+        putAll(entries, timeSource.currentTimeMillis());
+    }
+
+    // Stores a batch of key value pairs as of the given time.
+    public void putAll(Map<String, Long> entries, long timestamp) {
+        timeSource.observe(timestamp);
+
+        synchronized (lock) {
+            long now = timeSource.currentTimeMillis();
             clearExpiredValues(now);
+
+            long expiryTime = Math.min(timestamp, now) + expiryWindowMillis;
+            if (expiryTime < now || expiryRing.isRetired(expiryTime)) {
+                return;
+            }
+
+            long sumDelta = 0;
+            long countDelta = 0;
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                long value = entry.getValue();
+                Cache oldCache = keyValueStore.get(key);
+                if (oldCache != null && oldCache.expiringTime > expiryTime) {
+                    continue;
+                }
+
+                Cache newCache = new Cache(key, value, expiryTime);
+                keyValueStore.put(key, newCache);
+                if (oldCache != null && !expiryRing.isRetired(oldCache.expiringTime)) {
+                    sumDelta -= oldCache.value;
+                    countDelta--;
+                    expiryRing.remove(oldCache.expiringTime, oldCache.value);
+                }
+                sumDelta += value;
+                countDelta++;
+                expiryRing.add(newCache, expiryTime, value);
+            }
+            sum.addAndGet(sumDelta);
+            count.addAndGet(countDelta);
         }
     }
 
@@ -55,14 +185,14 @@ public class WindowedKeyValueStoreConcurrent {
         if (cache == null) {
             return -1;
         }
-        long now = System.currentTimeMillis();
+        long now = timeSource.currentTimeMillis();
         if (cache.expiringTime < now) {
             synchronized (lock) {
-                Cache removed = keyValueStore.remove(key);
-                if (removed != null) {
-                    sum.addAndGet(-removed.value);
+                // Only if it was not replaced meanwhile. The ring entry stays and is skipped later.
+                if (keyValueStore.remove(key, cache) && !expiryRing.isRetired(cache.expiringTime)) {
+                    sum.addAndGet(-cache.value);
                     count.decrementAndGet();
-                    expiryQueue.remove(removed);
+                    expiryRing.remove(cache.expiringTime, cache.value);
                 }
             }
             return -1;
@@ -70,9 +200,24 @@ public class WindowedKeyValueStoreConcurrent {
         return cache.value;
     }
 
+    // Values of the keys that are present and not expired, read without the
+    // lock against a single timestamp. Missing keys are left out.
+    public Map<String, Long> getAll(Collection<String> keys) {
+        long now = timeSource.currentTimeMillis();
+        Map<String, Long> values = new HashMap<>();
+        for (String key : keys) {
+            Cache cache = keyValueStore.get(key);
+            // Expired entries are left for the next expiry pass to remove.
+            if (cache != null && cache.expiringTime >= now) {
+                values.put(key, cache.value);
+            }
+        }
+        return values;
+    }
+
     public double getAverage() {
-        long now = System.currentTimeMillis();
         synchronized (lock) {
+            long now = timeSource.currentTimeMillis();
             clearExpiredValues(now);
             long currentCount = count.get();
             return currentCount == 0 ? 0.0 : (double) sum.get() / currentCount;
@@ -80,18 +225,8 @@ public class WindowedKeyValueStoreConcurrent {
     }
 
     private void clearExpiredValues(long now) {
-        while (true) {
-            Cache expiredCache = expiryQueue.peek();
-            if (expiredCache == null || expiredCache.expiringTime >= now) {
-                break;
-            }
-            expiryQueue.poll();
-            Cache removed = keyValueStore.remove(expiredCache.key);
-            if (removed != null) {
-                sum.addAndGet(-removed.value);
-                count.decrementAndGet();
-            }
-        }
+        expiryRing.retire(now, retirer);
+        expiryRing.drain(maxExpiryPerCall, remover);
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -128,5 +263,62 @@ public class WindowedKeyValueStoreConcurrent {
         System.out.println("Average at T + 30s: " + store.getAverage());
         // Expected: (50 + 60) / 2 = 55.0
         // Explanation: d (T + 10s) expired at T + 25s, only e and f remain
+
+        // Ingest in batches of 1000: one put per record against one putAll per batch.
+        String[] keys = new String[100_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        List<Map<String, Long>> batches = new ArrayList<>();
+        Random random = new Random(42);
+        for (int b = 0; b < 2_000; b++) {
+            Map<String, Long> batch = new HashMap<>();
+            for (int i = 0; i < 1_000; i++) {
+                batch.put(keys[random.nextInt(keys.length)], (long) i);
+            }
+            batches.add(batch);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            // First round is warm up.
+            WindowedKeyValueStoreConcurrent perRecord = new WindowedKeyValueStoreConcurrent(60_000);
+            long begin = System.nanoTime();
+            for (Map<String, Long> batch : batches) {
+                for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                    perRecord.put(entry.getKey(), entry.getValue());
+                }
+            }
+            long perRecordNanos = System.nanoTime() - begin;
+
+            WindowedKeyValueStoreConcurrent batched = new WindowedKeyValueStoreConcurrent(60_000);
+            begin = System.nanoTime();
+            for (Map<String, Long> batch : batches) {
+                batched.putAll(batch);
+            }
+            long batchedNanos = System.nanoTime() - begin;
+
+            if (round == 1) {
+                System.out.printf("put per record %dms, putAll %dms, same average: %b%n", perRecordNanos / 1_000_000,
+                        batchedNanos / 1_000_000, perRecord.getAverage() == batched.getAverage());
+            }
+        }
+
+        // A burst followed by idle time: the first put afterwards pays for the whole burst unless
+        // the reaper already removed it.
+        for (boolean withReaper : new boolean[] {false, true}) {
+            try (WindowedKeyValueStoreConcurrent burst = new WindowedKeyValueStoreConcurrent(200)) {
+                if (withReaper) {
+                    burst.startReaper(50);
+                }
+                for (int i = 0; i < 500_000; i++) {
+                    burst.put(keys[i % keys.length] + "-" + i, i);
+                }
+                Thread.sleep(600); // the whole burst expires
+                long begin = System.nanoTime();
+                burst.put("next", 1);
+                System.out.printf("first put after the burst expired, %s: %.2fms%n",
+                        withReaper ? "with reaper" : "no reaper", (System.nanoTime() - begin) / 1e6);
+            }
+        }
     }
 }
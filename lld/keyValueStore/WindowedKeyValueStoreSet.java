@@ -2,13 +2,34 @@ package lld.keyValueStore;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 
-public class WindowedKeyValueStoreSet {
+/**
+ * Windowed key value store whose reads never write.
+ *
+ * Only writers (put, putAll) and the reaper expire entries, under the write
+ * lock. get and getAll take no lock at all: they read the map and skip
+ * entries whose expiry time has passed, even if they are still in it.
+ * getAverage reads sum and count under an optimistic read of a StampedLock,
+ * then takes off the partials of the expiry buckets that are due but that no
+ * writer has retired yet. If a writer got in between, the stamp fails to
+ * validate and the read is repeated under the shared read lock, so the
+ * average always comes from one consistent state of the store.
+ *
+ * Without writes nothing is removed, startReaper frees the memory of idle
+ * stores.
+ */
+public class WindowedKeyValueStoreSet implements AutoCloseable {
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Entries the background reaper removes per lock acquisition.
+    private static final int REAPER_CHUNK = 4096;
+
+    private final StampedLock lock = new StampedLock();
 
     private static class Cache {
         private final String key;
@@ -22,103 +43,241 @@ public class WindowedKeyValueStoreSet {
         }
     }
 
-    private AtomicLong count;
-    private AtomicLong sum;
+    // Guarded by the write lock, read under a stamp.
+    private long count;
+    private long sum;
 
     private final long expiryWindowMillis;
+    private final TimeSource timeSource;
     private final ConcurrentHashMap<String, Cache> store;
-    private final ConcurrentSkipListMap<Long, Set<String>> expiryTree;
+    private final ExpiryRing<Cache> expiryRing;
+    private final ExpiryRing.Retirer retirer;
+    private final Consumer<Cache> remover;
+    private volatile int maxExpiryPerCall = Integer.MAX_VALUE;
+    private ScheduledExecutorService reaper;
 
     WindowedKeyValueStoreSet(final long expiryWindowMillis) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 1024), TimeSource.SYSTEM);
+    }
+
+    WindowedKeyValueStoreSet(final long expiryWindowMillis, final TimeSource timeSource) {
+        this(expiryWindowMillis, Math.max(1, expiryWindowMillis / 1024), timeSource);
+    }
+
+    // Entries expire up to granularityMillis late, coarser buckets make puts cheaper.
+    WindowedKeyValueStoreSet(final long expiryWindowMillis, final long granularityMillis,
+            final TimeSource timeSource) {
         this.expiryWindowMillis = expiryWindowMillis;
+        this.timeSource = timeSource;
         this.store = new ConcurrentHashMap<>();
-        this.expiryTree = new ConcurrentSkipListMap<>();
-        this.sum = new AtomicLong(0);
-        this.count = new AtomicLong(0);
+        this.expiryRing = new ExpiryRing<>(expiryWindowMillis, granularityMillis);
+        this.retirer = (bucketSum, bucketCount) -> {
+            sum -= bucketSum;
+            count -= bucketCount;
+        };
+        this.remover = expiredCache -> store.remove(expiredCache.key, expiredCache); // no-op for entries replaced since
+    }
+
+    // Caps the expired entries one call removes from the store, the average stays exact
+    public void setMaxExpiryPerCall(int maxExpiryPerCall) {
+        if (maxExpiryPerCall <= 0) {
+            throw new IllegalArgumentException("maxExpiryPerCall must be positive");
+        }
+        this.maxExpiryPerCall = maxExpiryPerCall;
+    }
+
+    // Starts a daemon thread expiring entries every periodMillis, even without traffic
+    public synchronized void startReaper(long periodMillis) {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "windowed-store-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::cleanUp, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Expires everything that is due, releasing the lock between chunks
+    public void cleanUp() {
+        boolean more = true;
+        while (more) {
+            long stamp = lock.writeLock();
+            try {
+                expiryRing.retire(timeSource.currentTimeMillis(), retirer);
+                more = expiryRing.drain(REAPER_CHUNK, remover) == REAPER_CHUNK;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+            reaper = null;
+        }
     }
 
     // Stores the key with the given value and current time
     public void put(String key, long value) {
+        put(key, value, timeSource.currentTimeMillis());
+    }
 
-        lock.writeLock().lock();
+    // Stores the key with the given value as of the given time, a timestamp
+    // ahead of the time source counts as now
+    public void put(String key, long value, long timestamp) {
+        timeSource.observe(timestamp);
+
+        long stamp = lock.writeLock();
         try {
-            long timeNow = System.currentTimeMillis();
+            long timeNow = timeSource.currentTimeMillis();
             clearExpiredValues(timeNow); // Clear expired values everytime we call put operation.
 
+            long expiryTime = Math.min(timestamp, timeNow) + expiryWindowMillis;
+            Cache existing = store.get(key);
+            if (expiryTime < timeNow || expiryRing.isRetired(expiryTime)
+                    || (existing != null && existing.expiryTime > expiryTime)) {
+                // Already expired, or older than the value we have. Once the clock has gone
+                // back, a bucket can retire ahead of it, what would land there is expired too.
+                return;
+            }
+
             // if key exists in store, remove key value from sum and decrease count.
-            if (store.containsKey(key)) {
-                Cache cache = store.get(key);
-                sum.addAndGet(-cache.value);
-                count.decrementAndGet();
-                expiryTree.get(cache.expiryTime).remove(cache.key); // remove existing entry from TreeMap
+            // An entry whose bucket retired is already out of the sum, it only waits for removal.
+            if (existing != null && !expiryRing.isRetired(existing.expiryTime)) {
+                sum -= existing.value;
+                count--;
+                expiryRing.remove(existing.expiryTime, existing.value); // the stale entry is skipped when its bucket retires
             }
 
-            count.incrementAndGet();
-            sum.addAndGet(value);
+            count++;
+            sum += value;
 
-            long expiryTime = timeNow + expiryWindowMillis;
             Cache cache = new Cache(key, value, expiryTime);
 
             store.put(key, cache);
-            expiryTree.computeIfAbsent(expiryTime, k -> new HashSet<>()).add(key);
+            expiryRing.add(cache, expiryTime, value);
         } finally {
-            lock.writeLock().unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
-    // Retrieves the value if not expired, otherwise returns -1
-    public long get(String key) {
+    // Stores a batch of key value pairs with the current time: one lock, one
+    // expiry pass and one sum/count update for the whole batch
+    public void putAll(Map<String, Long> entries) {
+        putAll(entries, timeSource.currentTimeMillis());
+    }
 
-        lock.readLock().lock();
+    // Stores a batch of key value pairs as of the given time
+    public void putAll(Map<String, Long> entries, long timestamp) {
+        timeSource.observe(timestamp);
+
+        long stamp = lock.writeLock();
         try {
-            long timeNow = System.currentTimeMillis();
-            clearExpiredValues(timeNow); // Clear expired values everytime we call get operation.
+            long timeNow = timeSource.currentTimeMillis();
+            clearExpiredValues(timeNow);
 
-            if (store.containsKey(key)) {
-                return store.get(key).value;
+            long expiryTime = Math.min(timestamp, timeNow) + expiryWindowMillis;
+            if (expiryTime < timeNow || expiryRing.isRetired(expiryTime)) {
+                return;
             }
 
-            return -1;
+            long sumDelta = 0;
+            long countDelta = 0;
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                long value = entry.getValue();
+                Cache existing = store.get(key);
+                if (existing != null && existing.expiryTime > expiryTime) {
+                    continue;
+                }
+                if (existing != null && !expiryRing.isRetired(existing.expiryTime)) {
+                    sumDelta -= existing.value;
+                    countDelta--;
+                    expiryRing.remove(existing.expiryTime, existing.value);
+                }
+
+                Cache cache = new Cache(key, value, expiryTime);
+                store.put(key, cache);
+                expiryRing.add(cache, expiryTime, value);
+                sumDelta += value;
+                countDelta++;
+            }
+            sum += sumDelta;
+            count += countDelta;
         } finally {
-            lock.readLock().unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
+    // Retrieves the value if not expired, otherwise returns -1
+    public long get(String key) {
+        // No lock: an expired entry still in the map is skipped, writers remove it.
+        Cache cache = store.get(key);
+        if (cache != null && cache.expiryTime >= timeSource.currentTimeMillis()) {
+            return cache.value;
+        }
+        return -1;
+    }
+
+    // Retrieves the values of the keys that exist and are not expired, missing keys are left out
+    public Map<String, Long> getAll(Collection<String> keys) {
+        long timeNow = timeSource.currentTimeMillis(); // one timestamp for the whole batch
+
+        Map<String, Long> values = new HashMap<>();
+        for (String key : keys) {
+            Cache cache = store.get(key);
+            if (cache != null && cache.expiryTime >= timeNow) {
+                values.put(key, cache.value);
+            }
+        }
+        return values;
+    }
+
     // Returns the average of all non-expired values
     public double getAverage() {
-        lock.readLock().lock();
-        try {
-            long timeNow = System.currentTimeMillis();
-            clearExpiredValues(timeNow); // Clear expired values everytime we call getAverage operation.
+        long timeNow = timeSource.currentTimeMillis();
+        long[] totals = new long[2];
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            readTotals(timeNow, totals);
+            if (lock.validate(stamp)) {
+                return average(totals);
+            }
+        }
 
-            return count.get() == 0 ? 0.0 : (double) sum.get() / count.get();
+        // A writer got in between, read again while writers wait.
+        stamp = lock.readLock();
+        try {
+            readTotals(timeNow, totals);
+            return average(totals);
         } finally {
-            lock.readLock().unlock();
+            lock.unlockRead(stamp);
         }
     }
 
-    private void clearExpiredValues(long timeNow) {
-
-        // Check for expired keys
-        Iterator<Map.Entry<Long, Set<String>>> it = expiryTree.entrySet().iterator();
-
-        while (it.hasNext()) {
-            Map.Entry<Long, Set<String>> entry = it.next();
-            long expiryTime = entry.getKey();
+    // Live sum and count as of timeNow: the running totals minus the buckets due but not retired.
+    private void readTotals(long timeNow, long[] totals) {
+        totals[0] = 0;
+        totals[1] = 0;
+        expiryRing.due(timeNow, totals);
+        totals[0] = sum - totals[0];
+        totals[1] = count - totals[1];
+    }
 
-            // Entry is not expired, so don't need to check more.
-            if (expiryTime > timeNow) {
-                break;
-            }
+    private static double average(long[] totals) {
+        return totals[1] <= 0 ? 0.0 : (double) totals[0] / totals[1];
+    }
 
-            for (String key : entry.getValue()) {
-                Cache expiredCache = store.remove(key);
-                sum.addAndGet(-expiredCache.value);
-                count.decrementAndGet();
-            }
+    private void clearExpiredValues(long timeNow) {
 
-            it.remove();
-        }
+        // Retire whole buckets: the partials already cover exactly the live entries in them.
+        expiryRing.retire(timeNow, retirer);
+        expiryRing.drain(maxExpiryPerCall, remover);
 
     }
 
@@ -161,6 +320,43 @@ public class WindowedKeyValueStoreSet {
         System.out.println("get value of e " + store.get("e")); // Not expired
         Thread.sleep(10_000);
         System.out.println("get value of e " + store.get("e")); // Now expired
+
+        // Readers against one writer: reads take no lock, so they don't slow each other down.
+        WindowedKeyValueStoreSet shared = new WindowedKeyValueStoreSet(1_000);
+        String[] keys = new String[10_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            shared.put(keys[i], i);
+        }
+        int readerCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        LongAdder reads = new LongAdder();
+        long deadline = System.currentTimeMillis() + 2_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                shared.put(keys[i % keys.length], i);
+            }
+        });
+        Thread[] readers = new Thread[readerCount];
+        for (int t = 0; t < readerCount; t++) {
+            readers[t] = new Thread(() -> {
+                long done = 0;
+                for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                    shared.get(keys[i % keys.length]);
+                    shared.getAverage();
+                    done += 2;
+                }
+                reads.add(done);
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.out.printf("%d readers and 1 writer: %,.0f reads/sec%n", readerCount, reads.sum() / 2.0);
     }
 
 }
@@ -182,4 +378,10 @@ public class WindowedKeyValueStoreSet {
  * Supports features like “fairness” (locks given in order of requests).
  * Can be used as a read/write lock variant for better performance with many
  * readers.
+ * 
+ * StampedLock
+ * Write, read and optimistic read modes, not reentrant.
+ * An optimistic read takes no lock at all: read the fields, then validate the
+ * stamp; if a writer came in meanwhile, read again under the read lock.
+ * Readers never write to shared memory, so they scale with cores.
  */
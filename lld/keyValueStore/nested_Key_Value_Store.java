@@ -4,50 +4,125 @@ import java.util.*;
 
 class nested_Key_Value_Store {
 
-    Map<String, Map<String, TreeMap<Integer, String>>> store;
+    // Chains compacted per put, the rest waits for later puts or compactSome.
+    private static final int COMPACTIONS_PER_PUT = 2;
+    // compactAt of a chain that left the store.
+    private static final long DETACHED = Long.MIN_VALUE;
+
+    // Versions of a sub key are a VersionChain: sorted primitive timestamps, no boxing or tree nodes.
+    Map<String, Map<String, VersionChain>> store;
+
+    // Retention, null keeps every version. Chains with versions to drop wait in the
+    // queue, ordered by the store time at which they are due.
+    private RetentionPolicy retention;
+    private final PriorityQueue<Compaction> compactions = new PriorityQueue<>();
+    // Queue entries of chains deleted or rescheduled since, purged once they are half the queue.
+    private int staleCompactions;
+    private int now = Integer.MIN_VALUE; // store time, the highest timestamp put so far
+
+    private static class Compaction implements Comparable<Compaction> {
+        private final long dueAt;
+        private final VersionChain chain;
+
+        Compaction(final long dueAt, final VersionChain chain) {
+            this.dueAt = dueAt;
+            this.chain = chain;
+        }
+
+        @Override
+        public int compareTo(Compaction other) {
+            return Long.compare(dueAt, other.dueAt);
+        }
+    }
 
     nested_Key_Value_Store() {
         store = new HashMap<>();
     }
 
+    // Sets the retention of every sub key, existing versions are dropped over the next writes
+    public void setRetention(RetentionPolicy retention) {
+        this.retention = retention;
+        compactions.clear();
+        staleCompactions = 0;
+        for (Map<String, VersionChain> subKeyMap : store.values()) {
+            for (VersionChain versions : subKeyMap.values()) {
+                versions.compactAt = Long.MAX_VALUE;
+                schedule(versions);
+            }
+        }
+    }
+
+    /**
+     * Compacts up to maxChains sub keys that are due, for callers that want
+     * compaction off the write path (the store is not thread safe, so from the
+     * thread that owns it, e.g. when idle).
+     *
+     * @return number of versions dropped.
+     */
+    public int compactSome(int maxChains) {
+        int dropped = 0;
+        int compacted = 0;
+        while (compacted < maxChains && !compactions.isEmpty() && compactions.peek().dueAt <= now) {
+            Compaction compaction = compactions.poll();
+            VersionChain versions = compaction.chain;
+            if (versions.compactAt != compaction.dueAt) {
+                staleCompactions = Math.max(0, staleCompactions - 1);
+                continue; // rescheduled since, or deleted
+            }
+            versions.compactAt = Long.MAX_VALUE;
+            dropped += retention.compact(versions, now);
+            versions.markClean();
+            schedule(versions);
+            compacted++;
+        }
+        return dropped;
+    }
+
     // Method to implement the 'put' operation
     public void put(String key, String sub_key, String value, int timestamp) {
 
-        store.putIfAbsent(key, new HashMap<>());
-        Map<String, TreeMap<Integer, String>> subKeyMap = store.get(key);
-        subKeyMap.putIfAbsent(sub_key, new TreeMap<>());
+        Map<String, VersionChain> subKeyMap = store.computeIfAbsent(key, k -> new HashMap<>());
+        VersionChain versions = subKeyMap.computeIfAbsent(sub_key, k -> new VersionChain());
 
-        subKeyMap.get(sub_key).put(timestamp, value);
+        // O(1) append when timestamps arrive in order, a binary search insert otherwise.
+        versions.put(timestamp, value);
 
+        now = Math.max(now, timestamp);
+        if (retention != null) {
+            schedule(versions);
+            compactSome(COMPACTIONS_PER_PUT);
+        } else {
+            versions.markClean();
+        }
     }
 
     // Method to implement the 'get' operation for a specific timestamp
     public String get(String key, String sub_key, int timestamp) {
 
-        Map<String, TreeMap<Integer, String>> subKeyMap = store.get(key);
+        Map<String, VersionChain> subKeyMap = store.get(key);
         if (subKeyMap == null)
             return "";
 
-        TreeMap<Integer, String> valueMap = subKeyMap.get(sub_key);
-        if (valueMap == null)
+        VersionChain versions = subKeyMap.get(sub_key);
+        if (versions == null)
             return "";
 
-        Integer floor = valueMap.floorKey(timestamp);
-        return floor == null ? "" : valueMap.get(floor);
+        String floor = versions.floor(timestamp);
+        return floor == null ? "" : floor;
     }
 
     // Method to implement the 'getLatest' operation for the latest value
     public String getLatest(String key, String sub_key) {
 
-        Map<String, TreeMap<Integer, String>> subKeyMap = store.get(key);
+        Map<String, VersionChain> subKeyMap = store.get(key);
         if (subKeyMap == null)
             return "";
 
-        TreeMap<Integer, String> valueMap = subKeyMap.get(sub_key);
-        if (valueMap == null || valueMap.isEmpty())
+        VersionChain versions = subKeyMap.get(sub_key);
+        if (versions == null || versions.size() == 0)
             return "";
 
-        return valueMap.lastEntry().getValue();
+        return versions.latest();
     }
 
     // Method to implement the 'getAllValues' operation for all values of a key
@@ -56,8 +131,8 @@ class nested_Key_Value_Store {
         Map<String, String> result = new HashMap<>();
 
         if (store.containsKey(key)) {
-            for (Map.Entry<String, TreeMap<Integer, String>> entry : store.get(key).entrySet()) {
-                result.put(entry.getKey(), entry.getValue().lastEntry().getValue());
+            for (Map.Entry<String, VersionChain> entry : store.get(key).entrySet()) {
+                result.put(entry.getKey(), entry.getValue().latest());
             }
         }
 
@@ -66,16 +141,58 @@ class nested_Key_Value_Store {
 
     // Method to implement the 'deleteKey' operation
     public void deleteKey(String key) {
-        store.remove(key);
+        Map<String, VersionChain> subKeyMap = store.remove(key);
+        if (subKeyMap != null) {
+            for (VersionChain versions : subKeyMap.values()) {
+                detach(versions);
+            }
+            purgeStaleCompactions();
+        }
     }
 
     // Method to implement the 'deleteSubKey' operation
     public void deleteSubKey(String key, String sub_key) {
-        Map<String, TreeMap<Integer, String>> subKeyMap = store.get(key);
+        Map<String, VersionChain> subKeyMap = store.get(key);
         if (subKeyMap != null) {
-            subKeyMap.remove(sub_key);
+            VersionChain versions = subKeyMap.remove(sub_key);
+            if (versions != null) {
+                detach(versions);
+                purgeStaleCompactions();
+            }
+        }
+
+    }
+
+    // Marks a deleted chain so its queue entry, if any, is skipped.
+    private void detach(VersionChain versions) {
+        if (versions.compactAt != Long.MAX_VALUE) {
+            staleCompactions++;
         }
+        versions.compactAt = DETACHED;
+    }
 
+    /**
+     * Drops the skipped entries once they are half the queue, so deleted
+     * chains do not stay reachable until their due time comes. O(n), at most
+     * once per n / 2 deletes or reschedules.
+     */
+    private void purgeStaleCompactions() {
+        if (staleCompactions * 2 > compactions.size()) {
+            compactions.removeIf(compaction -> compaction.chain.compactAt != compaction.dueAt);
+            staleCompactions = 0;
+        }
+    }
+
+    // Queues the chain for when the policy next has something to drop, once per chain.
+    private void schedule(VersionChain versions) {
+        long dueAt = retention == null ? Long.MAX_VALUE : retention.dueAt(versions);
+        if (dueAt < versions.compactAt) {
+            if (versions.compactAt != Long.MAX_VALUE) {
+                staleCompactions++; // the earlier entry is skipped
+            }
+            versions.compactAt = dueAt;
+            compactions.add(new Compaction(dueAt, versions));
+        }
     }
 
     // Test the functionality of the store with sample operations
@@ -140,6 +257,50 @@ class nested_Key_Value_Store {
         assert store.getLatest("user2", "email").equals("") : "Test failed at getLatest(user2, email)";
         assert store.getLatest("user1", "email").equals("alice@home.com") : "Test failed at getLatest(user1, email)";
 
+        // Edge Case 4: Out of order timestamps are inserted in place, not appended
+        store.put("user3", "city", "Paris", 10);
+        store.put("user3", "city", "Berlin", 30);
+        store.put("user3", "city", "Rome", 20);
+        assert store.get("user3", "city", 25).equals("Rome") : "Test failed at get(user3, city, 25)";
+        assert store.get("user3", "city", 5).equals("") : "Test failed at get(user3, city, 5)";
+        assert store.getLatest("user3", "city").equals("Berlin") : "Test failed at getLatest(user3, city)";
+
+        // Test Case 9: Retention keeps the last 3 versions, older ones are compacted away during puts
+        store.setRetention(RetentionPolicy.keepLast(3));
+        for (int t = 10; t < 20; t++) {
+            store.put("user4", "status", "s" + t, t);
+        }
+        assert store.get("user4", "status", 16).equals("") : "Test failed at keepLast get(user4, status, 16)";
+        assert store.get("user4", "status", 18).equals("s18") : "Test failed at keepLast get(user4, status, 18)";
+
+        // Test Case 10: Retention by age keeps the version in force at the horizon
+        store.setRetention(RetentionPolicy.keepNewerThan(5));
+        store.put("user5", "status", "early", 100);
+        store.put("user5", "status", "late", 103);
+        store.put("user6", "status", "clock", 110); // store time moves to 110, horizon 105
+        store.compactSome(10);
+        assert store.get("user5", "status", 105).equals("late") : "Test failed at keepNewerThan get(user5, status, 105)";
+        assert store.get("user5", "status", 101).equals("") : "Test failed at keepNewerThan get(user5, status, 101)";
+
+        // Test Case 11: Downsampling keeps the newest version of every interval of 10
+        store.setRetention(RetentionPolicy.downsample(10));
+        for (int t = 200; t < 230; t += 3) {
+            store.put("user7", "cpu", "c" + t, t);
+        }
+        store.compactSome(10);
+        assert store.get("user7", "cpu", 209).equals("c209") : "Test failed at downsample get(user7, cpu, 209)";
+        assert store.get("user7", "cpu", 215).equals("c209") : "Test failed at downsample get(user7, cpu, 215)";
+        assert store.get("user7", "cpu", 219).equals("c218") : "Test failed at downsample get(user7, cpu, 219)";
+
+        // Test Case 12: Deleted chains leave the compaction queue instead of waiting for their due time
+        store.setRetention(RetentionPolicy.keepNewerThan(1_000));
+        for (int k = 0; k < 100; k++) {
+            store.put("user8", "k" + k, "old", 300);
+            store.put("user8", "k" + k, "new", 301); // due at store time 1301
+        }
+        store.deleteKey("user8");
+        assert store.compactions.isEmpty() : "Test failed at deleteKey purging the compaction queue";
+
         // If all assertions pass
         System.out.println("All tests passed!");
     }